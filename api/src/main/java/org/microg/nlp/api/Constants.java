@@ -23,5 +23,8 @@ public class Constants {
     public static final String METADATA_BACKEND_INIT_ACTIVITY = "org.microg.nlp.BACKEND_INIT_ACTIVITY";
     public static final String METADATA_BACKEND_SUMMARY = "org.microg.nlp.BACKEND_SUMMARY";
     public static final String METADATA_API_VERSION = "org.microg.nlp.API_VERSION";
+    public static final String METADATA_BACKEND_COST = "org.microg.nlp.BACKEND_COST";
+    public static final String BACKEND_COST_LOCAL = "local";
+    public static final String BACKEND_COST_NETWORK = "network";
     public static final String API_VERSION = "3";
 }
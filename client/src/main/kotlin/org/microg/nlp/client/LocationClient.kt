@@ -90,6 +90,24 @@ class LocationClient(context: Context, lifecycle: Lifecycle) : BaseClient<ILocat
             service.setLocationBackends(backends, StatusCallback(it), options)
         }
     }
+
+    suspend fun getLocationBackendStates(options: Bundle = defaultOptions): List<String> = withService { service ->
+        suspendCoroutine {
+            service.getLocationBackendStates(StringsCallback(it), options)
+        }
+    }
+
+    suspend fun getMetrics(options: Bundle = defaultOptions): List<String> = withService { service ->
+        suspendCoroutine {
+            service.getMetrics(StringsCallback(it), options)
+        }
+    }
+
+    suspend fun setLocationTrace(enabled: Boolean, options: Bundle = defaultOptions): Unit = withService { service ->
+        suspendCoroutine {
+            service.setLocationTrace(enabled, StatusCallback(it), options)
+        }
+    }
 }
 
 private class SingleLocationListener(private val continuation: Continuation<Location?>) : ILocationListener.Stub() {
@@ -100,4 +118,8 @@ private class SingleLocationListener(private val continuation: Continuation<Loca
             continuation.resumeWithException(RuntimeException("Status: $statusCode"))
         }
     }
+
+    override fun onLocations(statusCode: Int, locations: List<Location>?) {
+        onLocation(statusCode, locations?.lastOrNull())
+    }
 }
@@ -0,0 +1,53 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+/**
+ * A location estimate, holding only primitive fields.
+ *
+ * @property accuracy Estimated horizontal accuracy in meters, [Float.NaN] if unknown.
+ * @property time UTC time of the fix in milliseconds since epoch.
+ * @property source Opaque reference to where the fix originates from, copied to fixes derived from it.
+ */
+class Fix(
+        var latitude: Double,
+        var longitude: Double,
+        var accuracy: Float = Float.NaN,
+        var time: Long = 0,
+        var source: Any? = null
+) {
+    var speed: Float = 0f
+    var hasSpeed: Boolean = false
+    var bearing: Float = 0f
+    var hasBearing: Boolean = false
+
+    val hasAccuracy: Boolean
+        get() = !accuracy.isNaN()
+
+    val isValid: Boolean
+        get() = isValid(latitude, longitude, accuracy)
+
+    fun copy(): Fix = Fix(latitude, longitude, accuracy, time, source).also {
+        it.speed = speed
+        it.hasSpeed = hasSpeed
+        it.bearing = bearing
+        it.hasBearing = hasBearing
+    }
+
+    override fun toString(): String = "Fix[$latitude,$longitude acc=$accuracy time=$time]"
+
+    companion object {
+        /**
+         * @return Whether the coordinates are in range and the accuracy is known and non-negative.
+         */
+        fun isValid(latitude: Double, longitude: Double, accuracy: Float): Boolean {
+            if (!latitude.isFinite() || latitude > 90 || latitude < -90) return false
+            if (!longitude.isFinite() || longitude > 180 || longitude < -180) return false
+            if (!accuracy.isFinite() || accuracy < 0) return false
+            return true
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+/**
+ * Orders fixes best first: fixes with accuracy before those without, fixes much fresher than the other before older
+ * ones, and otherwise the more accurate one first.
+ */
+object FixComparator : Comparator<Fix> {
+    const val SWITCH_ON_FRESHNESS_CLIFF_MS: Long = 30000 // 30 seconds
+
+    override fun compare(lhs: Fix?, rhs: Fix?): Int {
+        if (lhs === rhs) return 0
+        if (lhs == null) return 1
+        if (rhs == null) return -1
+        if (!lhs.hasAccuracy) return 1
+        if (!rhs.hasAccuracy) return -1
+        if (rhs.time > lhs.time + SWITCH_ON_FRESHNESS_CLIFF_MS) return 1
+        if (lhs.time > rhs.time + SWITCH_ON_FRESHNESS_CLIFF_MS) return -1
+        return (lhs.accuracy - rhs.accuracy).toInt()
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+/**
+ * Turns the latest results of all backends into reported locations: drops invalid results and outliers, fuses the
+ * remaining ones and smooths the fused fix.
+ *
+ * The location service and [ReplayFuser] both use this, so a replayed trace is fused exactly like live results.
+ *
+ * @param listener Notified of results rejected as outliers by [fuse].
+ */
+class FusionPipeline(private val smoother: LocationSmoother = KalmanLocationSmoother(), listener: LocationOutlierFilter.Listener) {
+    private val outlierFilter = LocationOutlierFilter(listener)
+    private val estimateFilter = LocationOutlierFilter(object : LocationOutlierFilter.Listener {
+        override fun onRejected(location: Fix, reason: LocationOutlierFilter.Reason) = Unit
+    })
+
+    /**
+     * The last fix passed to [report], after smoothing.
+     */
+    var lastReported: Fix? = null
+        private set
+
+    /**
+     * Removes invalid fixes and outliers from [fixes], sorts the remaining ones best first and fuses them.
+     *
+     * @param weight Weight of a fix, relative to other fixes of the same accuracy.
+     * @return The fused fix with the source of the best fix, null if no fix remained.
+     */
+    fun fuse(fixes: MutableList<Fix>, weight: (Fix) -> Double): Fix? = fuse(fixes, weight, outlierFilter)
+
+    /**
+     * Like [fuse], without notifying the listener of outliers.
+     */
+    fun estimate(fixes: MutableList<Fix>, weight: (Fix) -> Double): Fix? = fuse(fixes, weight, estimateFilter)
+
+    private fun fuse(fixes: MutableList<Fix>, weight: (Fix) -> Double, filter: LocationOutlierFilter): Fix? {
+        fixes.removeAll { !it.isValid }
+        filter.filter(fixes, lastReported)
+        fixes.sortWith(FixComparator)
+        return LocationFusion.fuse(fixes, weight)
+    }
+
+    /**
+     * @return Whether [fused] is newer than the last reported fix.
+     */
+    fun isNewer(fused: Fix): Boolean = fused.time > (lastReported?.time ?: 0)
+
+    /**
+     * Smooths [fused] in place and remembers it as last reported fix, unless it is not newer than that.
+     *
+     * @return Whether [fused] was reported.
+     */
+    fun report(fused: Fix): Boolean {
+        if (!isNewer(fused)) return false
+        smoother.smooth(fused)
+        lastReported = fused
+        return true
+    }
+
+    fun reset() {
+        lastReported = null
+        smoother.reset()
+    }
+}
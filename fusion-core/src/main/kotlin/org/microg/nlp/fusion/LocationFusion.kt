@@ -0,0 +1,106 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import kotlin.math.*
+
+private const val EARTH_RADIUS = 6371008.8
+private const val METERS_PER_DEGREE = EARTH_RADIUS * PI / 180.0
+
+/**
+ * Combines the results of multiple backends into a single location estimate.
+ *
+ * Every fix is weighted by the inverse of its variance, where the variance is derived from the reported accuracy and
+ * inflated with the age of the fix relative to the best fix, which is the reference for position and time. The
+ * accuracy of the fused location is scaled by how well the individual fixes agree with each other, so that
+ * contradicting results do not produce an overconfident fix.
+ */
+object LocationFusion {
+    /**
+     * Fixes older than this compared to the reference fix are not considered for fusion.
+     */
+    const val MAX_FIX_AGE_MS: Long = 120000 // 2 minutes
+
+    /**
+     * Assumed speed of the device used to inflate the uncertainty of older fixes.
+     */
+    const val AGE_UNCERTAINTY_SPEED: Double = 1.5 // m/s
+
+    /**
+     * Fuses the provided fixes.
+     *
+     * @param locations Valid backend results, sorted by [FixComparator], best first.
+     * @param scale Additional factor applied to the weight of each fix.
+     * @return A new fix with the [Fix.source] and [Fix.time] of the best fix, or null if [locations] is empty.
+     */
+    fun fuse(locations: List<Fix>, scale: (Fix) -> Double = { 1.0 }): Fix? {
+        if (locations.isEmpty()) return null
+        val reference = locations[0]
+        if (locations.size == 1 || !reference.hasAccuracy) return reference.copy()
+
+        val cosLatitude = max(cos(Math.toRadians(reference.latitude)), 1e-6)
+        var weightSum = 0.0
+        var east = 0.0
+        var north = 0.0
+        var used = 0
+        for (location in locations) {
+            val weight = weightOf(location, reference) * scale(location)
+            if (weight <= 0.0) continue
+            weightSum += weight
+            east += weight * eastOf(location, reference, cosLatitude)
+            north += weight * northOf(location, reference)
+            used++
+        }
+        if (used <= 1) return reference.copy()
+        east /= weightSum
+        north /= weightSum
+
+        var chiSquare = 0.0
+        for (location in locations) {
+            val weight = weightOf(location, reference) * scale(location)
+            if (weight <= 0.0) continue
+            val dEast = eastOf(location, reference, cosLatitude) - east
+            val dNorth = northOf(location, reference) - north
+            chiSquare += weight * (dEast * dEast + dNorth * dNorth)
+        }
+        // Birge ratio: the internal error is only trusted as long as the results agree within their own accuracy
+        val agreement = sqrt(max(1.0, chiSquare / (2 * (used - 1))))
+        val accuracy = sqrt(1.0 / weightSum) * agreement
+
+        val fused = reference.copy()
+        fused.latitude = (reference.latitude + north / METERS_PER_DEGREE).coerceIn(-90.0, 90.0)
+        fused.longitude = normalizeLongitude(reference.longitude + east / (METERS_PER_DEGREE * cosLatitude))
+        fused.accuracy = accuracy.toFloat()
+        return fused
+    }
+
+    /**
+     * @return Whether [location] is given any weight when fused with the best fix [reference], as done by [fuse].
+     */
+    fun contributes(location: Fix, reference: Fix, scale: (Fix) -> Double = { 1.0 }): Boolean =
+            location === reference || reference.hasAccuracy && weightOf(location, reference) * scale(location) > 0.0
+
+    private fun weightOf(location: Fix, reference: Fix): Double {
+        if (!location.hasAccuracy) return 0.0
+        val age = reference.time - location.time
+        if (age > MAX_FIX_AGE_MS) return 0.0
+        val ageUncertainty = max(0L, age) / 1000.0 * AGE_UNCERTAINTY_SPEED
+        val accuracy = max(1.0, location.accuracy.toDouble())
+        return 1.0 / (accuracy * accuracy + ageUncertainty * ageUncertainty)
+    }
+
+    private fun northOf(location: Fix, reference: Fix): Double =
+            (location.latitude - reference.latitude) * METERS_PER_DEGREE
+
+    private fun eastOf(location: Fix, reference: Fix, cosLatitude: Double): Double =
+            normalizeLongitude(location.longitude - reference.longitude) * METERS_PER_DEGREE * cosLatitude
+
+    private fun normalizeLongitude(longitude: Double): Double = when {
+        longitude > 180 -> longitude - 360
+        longitude < -180 -> longitude + 360
+        else -> longitude
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.max
+import kotlin.math.sqrt
+
+/**
+ * Removes backend results that are inconsistent with the previously reported location or with the other results.
+ *
+ * A result is rejected if reaching it from the previous location would require an implausible speed, even when
+ * allowing for the accuracy of both. With three or more results, a result is also rejected if its accuracy circle does
+ * not overlap the circle around the component-wise median of all results. At most a minority of the results is
+ * rejected by the consensus test and the speed test never rejects all results.
+ *
+ * Filtering runs in linear time and only reuses internal scratch arrays, which grow with the number of backends.
+ */
+class LocationOutlierFilter(private val listener: Listener, private val maxSpeed: Double = DEFAULT_MAX_SPEED) {
+    interface Listener {
+        fun onRejected(location: Fix, reason: Reason)
+    }
+
+    enum class Reason { SPEED, CONSENSUS }
+
+    private var latitudes = DoubleArray(0)
+    private var longitudes = DoubleArray(0)
+    private var accuracies = DoubleArray(0)
+    private var rejected = BooleanArray(0)
+
+    /**
+     * Removes outliers from [locations] in place.
+     *
+     * @param previous The last location reported to clients, if any.
+     */
+    fun filter(locations: MutableList<Fix>, previous: Fix?) {
+        val size = locations.size
+        if (size == 0) return
+        ensureCapacity(size)
+        for (i in 0 until size) rejected[i] = false
+
+        var rejectedCount = 0
+        if (previous != null) {
+            val cosLatitude = cosOf(previous.latitude)
+            for (i in 0 until size) {
+                val location = locations[i]
+                val dt = max(1.0, abs(location.time - previous.time) / 1000.0)
+                val distance = distance(location.latitude, location.longitude, previous.latitude, previous.longitude, cosLatitude)
+                if (distance - location.accuracy - previous.accuracy > maxSpeed * dt) {
+                    rejected[i] = true
+                    rejectedCount++
+                }
+            }
+            if (rejectedCount == size) {
+                // Everything moved away, trust the backends over the previous location.
+                for (i in 0 until size) rejected[i] = false
+                rejectedCount = 0
+            }
+            for (i in 0 until size) if (rejected[i]) listener.onRejected(locations[i], Reason.SPEED)
+        }
+
+        if (size - rejectedCount >= 3) {
+            var n = 0
+            for (i in 0 until size) {
+                if (rejected[i]) continue
+                latitudes[n] = locations[i].latitude
+                longitudes[n] = locations[i].longitude
+                accuracies[n] = locations[i].accuracy.toDouble()
+                n++
+            }
+            val medianLatitude = select(latitudes, n, n / 2)
+            val medianLongitude = select(longitudes, n, n / 2)
+            val medianAccuracy = select(accuracies, n, n / 2)
+            val cosLatitude = cosOf(medianLatitude)
+            var outliers = 0
+            for (i in 0 until size) {
+                if (rejected[i]) continue
+                val location = locations[i]
+                val distance = distance(location.latitude, location.longitude, medianLatitude, medianLongitude, cosLatitude)
+                if (distance > CONSENSUS_FACTOR * (location.accuracy + medianAccuracy)) outliers++
+            }
+            if (outliers > 0 && outliers * 2 < n) {
+                for (i in 0 until size) {
+                    if (rejected[i]) continue
+                    val location = locations[i]
+                    val distance = distance(location.latitude, location.longitude, medianLatitude, medianLongitude, cosLatitude)
+                    if (distance > CONSENSUS_FACTOR * (location.accuracy + medianAccuracy)) {
+                        rejected[i] = true
+                        listener.onRejected(location, Reason.CONSENSUS)
+                    }
+                }
+            }
+        }
+
+        for (i in size - 1 downTo 0) {
+            if (rejected[i]) locations.removeAt(i)
+        }
+    }
+
+    private fun ensureCapacity(size: Int) {
+        if (rejected.size >= size) return
+        latitudes = DoubleArray(size)
+        longitudes = DoubleArray(size)
+        accuracies = DoubleArray(size)
+        rejected = BooleanArray(size)
+    }
+
+    companion object {
+        /**
+         * Maximum plausible speed of the device in m/s.
+         */
+        const val DEFAULT_MAX_SPEED = 150.0
+
+        /**
+         * Tolerance applied to the accuracy circles in the consensus test.
+         */
+        const val CONSENSUS_FACTOR = 2.0
+
+        private const val METERS_PER_DEGREE = 6371008.8 * PI / 180.0
+
+        private fun cosOf(latitude: Double) = max(cos(Math.toRadians(latitude)), 1e-6)
+
+        private fun distance(latitude1: Double, longitude1: Double, latitude2: Double, longitude2: Double, cosLatitude: Double): Double {
+            var dLongitude = longitude1 - longitude2
+            if (dLongitude > 180) dLongitude -= 360
+            if (dLongitude < -180) dLongitude += 360
+            val north = (latitude1 - latitude2) * METERS_PER_DEGREE
+            val east = dLongitude * METERS_PER_DEGREE * cosLatitude
+            return sqrt(north * north + east * east)
+        }
+
+        /**
+         * Quickselect on the first [n] elements of [values], reordering them.
+         *
+         * @return The [k]-th smallest of the first [n] elements.
+         */
+        private fun select(values: DoubleArray, n: Int, k: Int): Double {
+            var left = 0
+            var right = n - 1
+            while (left < right) {
+                val pivot = values[(left + right) ushr 1]
+                var i = left
+                var j = right
+                while (i <= j) {
+                    while (values[i] < pivot) i++
+                    while (values[j] > pivot) j--
+                    if (i <= j) {
+                        val tmp = values[i]
+                        values[i] = values[j]
+                        values[j] = tmp
+                        i++
+                        j--
+                    }
+                }
+                if (k <= j) right = j else if (k >= i) left = i else return values[k]
+            }
+            return values[k]
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import kotlin.math.*
+
+/**
+ * Stateful stage applied to fused locations before they are reported.
+ */
+interface LocationSmoother {
+    /**
+     * Updates the internal state with the provided fix and replaces its position, accuracy and, if available,
+     * speed and bearing with the smoothed estimate.
+     */
+    fun smooth(location: Fix)
+
+    fun reset()
+}
+
+/**
+ * Constant-velocity Kalman filter operating in a local east-north plane around the first fix.
+ *
+ * Both axes use the same isotropic measurement noise, so they share a single covariance matrix. The complete state is
+ * a handful of primitive fields and smoothing a location does not allocate.
+ */
+class KalmanLocationSmoother(private val processNoise: Double = DEFAULT_PROCESS_NOISE) : LocationSmoother {
+    private var initialized = false
+    private var updates = 0
+    private var lastTime: Long = 0
+
+    private var originLatitude = 0.0
+    private var originLongitude = 0.0
+    private var metersPerDegreeLongitude = 0.0
+
+    private var east = 0.0
+    private var north = 0.0
+    private var velocityEast = 0.0
+    private var velocityNorth = 0.0
+
+    // Shared covariance of [position, velocity] for each axis
+    private var p00 = 0.0
+    private var p01 = 0.0
+    private var p11 = 0.0
+
+    override fun smooth(location: Fix) {
+        val variance = max(1.0, location.accuracy.toDouble()).pow(2)
+        val dt = (location.time - lastTime) / 1000.0
+        if (!initialized || dt > MAX_GAP_SECONDS || abs(location.latitude) > MAX_LATITUDE) {
+            initialize(location, variance)
+        } else {
+            if (dt > 0) predict(dt)
+            val measuredEast = eastOf(location.longitude)
+            val measuredNorth = northOf(location.latitude)
+            val innovationVariance = p00 + variance
+            val innovationEast = measuredEast - east
+            val innovationNorth = measuredNorth - north
+            if (innovationEast * innovationEast + innovationNorth * innovationNorth > MAX_INNOVATION_SIGMA.pow(2) * innovationVariance) {
+                initialize(location, variance)
+            } else {
+                val k0 = p00 / innovationVariance
+                val k1 = p01 / innovationVariance
+                east += k0 * innovationEast
+                north += k0 * innovationNorth
+                velocityEast += k1 * innovationEast
+                velocityNorth += k1 * innovationNorth
+                p11 -= k1 * p01
+                p00 *= 1 - k0
+                p01 *= 1 - k0
+                updates++
+                if (east * east + north * north > MAX_ORIGIN_DISTANCE * MAX_ORIGIN_DISTANCE) reanchor()
+            }
+            lastTime = max(lastTime, location.time)
+        }
+
+        location.latitude = originLatitude + north / METERS_PER_DEGREE
+        location.longitude = normalizeLongitude(originLongitude + east / metersPerDegreeLongitude)
+        location.accuracy = sqrt(p00).toFloat()
+        if (updates > 1) {
+            val speed = sqrt(velocityEast * velocityEast + velocityNorth * velocityNorth)
+            location.speed = speed.toFloat()
+            location.hasSpeed = true
+            if (speed > sqrt(p11)) {
+                location.bearing = ((Math.toDegrees(atan2(velocityEast, velocityNorth)) + 360) % 360).toFloat()
+                location.hasBearing = true
+            } else {
+                location.hasBearing = false
+            }
+        } else {
+            location.hasSpeed = false
+            location.hasBearing = false
+        }
+    }
+
+    override fun reset() {
+        initialized = false
+        updates = 0
+        lastTime = 0
+    }
+
+    private fun initialize(location: Fix, variance: Double) {
+        originLatitude = location.latitude
+        originLongitude = location.longitude
+        metersPerDegreeLongitude = METERS_PER_DEGREE * max(cos(Math.toRadians(originLatitude)), 1e-6)
+        east = 0.0
+        north = 0.0
+        velocityEast = 0.0
+        velocityNorth = 0.0
+        p00 = variance
+        p01 = 0.0
+        p11 = INITIAL_SPEED_SIGMA * INITIAL_SPEED_SIGMA
+        lastTime = location.time
+        updates = 1
+        initialized = true
+    }
+
+    private fun predict(dt: Double) {
+        east += velocityEast * dt
+        north += velocityNorth * dt
+        val dt2 = dt * dt
+        p00 += 2 * dt * p01 + dt2 * p11 + processNoise * dt2 * dt / 3
+        p01 += dt * p11 + processNoise * dt2 / 2
+        p11 += processNoise * dt
+    }
+
+    private fun reanchor() {
+        val latitude = originLatitude + north / METERS_PER_DEGREE
+        val longitude = normalizeLongitude(originLongitude + east / metersPerDegreeLongitude)
+        originLatitude = latitude
+        originLongitude = longitude
+        metersPerDegreeLongitude = METERS_PER_DEGREE * max(cos(Math.toRadians(originLatitude)), 1e-6)
+        east = 0.0
+        north = 0.0
+    }
+
+    private fun northOf(latitude: Double): Double = (latitude - originLatitude) * METERS_PER_DEGREE
+
+    private fun eastOf(longitude: Double): Double = normalizeLongitude(longitude - originLongitude) * metersPerDegreeLongitude
+
+    private fun normalizeLongitude(longitude: Double): Double = when {
+        longitude > 180 -> longitude - 360
+        longitude < -180 -> longitude + 360
+        else -> longitude
+    }
+
+    companion object {
+        private const val METERS_PER_DEGREE = 6371008.8 * PI / 180.0
+        private const val MAX_LATITUDE = 89.0
+        private const val MAX_GAP_SECONDS = 300.0
+        private const val MAX_ORIGIN_DISTANCE = 50000.0
+        private const val MAX_INNOVATION_SIGMA = 5.0
+        private const val INITIAL_SPEED_SIGMA = 10.0
+
+        /**
+         * Spectral density of the acceleration noise in m²/s³.
+         */
+        const val DEFAULT_PROCESS_NOISE = 1.0
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.PrintWriter
+import kotlin.math.max
+
+/**
+ * Runs location update rounds periodically.
+ *
+ * Rounds never overlap: the next round is only scheduled once the previous one finished. Rounds are aligned to the
+ * phase of the previous round, so changing the interval does not restart the schedule. Rounds that were missed because
+ * a round took longer than the interval are skipped instead of being run back-to-back.
+ *
+ * @param clock Monotonic time in milliseconds.
+ */
+class LocationUpdateScheduler(private val minInterval: Long, private val clock: () -> Long = { System.nanoTime() / 1000000 }, metrics: MetricsRegistry = MetricsRegistry.location, private val round: suspend () -> Unit) {
+    private val wakeup = Channel<Unit>(Channel.CONFLATED)
+    private var job: Job? = null
+
+    @Volatile
+    var interval: Long = Long.MAX_VALUE
+        private set
+
+    @Volatile
+    private var requestNow = false
+
+    private var lastDue: Long = 0
+    private var lastStart: Long = 0
+    private var lastEnd: Long = 0
+
+    private val ticks = metrics.counter("scheduler.ticks")
+    private val lateTicks = metrics.counter("scheduler.late_ticks")
+    private val skippedTicks = metrics.counter("scheduler.skipped_ticks")
+    private val lateness = metrics.histogram("scheduler.lateness_ms")
+    private val roundTime = metrics.histogram("scheduler.round_time_ms")
+
+    /**
+     * Starts scheduling rounds in a coroutine started by [launch].
+     */
+    fun start(launch: (suspend () -> Unit) -> Job) {
+        if (job?.isActive == true) return
+        job = launch { run() }
+    }
+
+    fun stop() {
+        job?.cancel()
+        job = null
+    }
+
+    /**
+     * Updates the interval between rounds, [Long.MAX_VALUE] to stop scheduling rounds.
+     *
+     * @param requestNow Run a round as soon as [minInterval] allows, independent of [interval].
+     */
+    fun setInterval(interval: Long, requestNow: Boolean = false) {
+        this.interval = interval
+        if (requestNow) this.requestNow = true
+        wakeup.trySend(Unit)
+    }
+
+    private suspend fun run() {
+        while (true) {
+            val interval = interval
+            val periodic = !requestNow
+            val now = clock()
+            var due = when {
+                !periodic -> now
+                interval == Long.MAX_VALUE -> {
+                    wakeup.receive()
+                    continue
+                }
+                lastDue == 0L -> now
+                else -> lastDue + interval
+            }
+            if (periodic && due + interval <= now) {
+                // Stay in phase, only count the slots a long round ran into as skipped
+                val missed = (now - due) / interval
+                if (lastEnd - lastStart > interval) skippedTicks.increment(missed)
+                due += missed * interval
+            }
+            if (lastStart != 0L) due = max(due, lastStart + minInterval)
+            if (due > now) {
+                if (withTimeoutOrNull(due - now) { wakeup.receive() } != null) continue
+            }
+            requestNow = false
+            val start = clock()
+            val lateness = max(0, start - due)
+            ticks.increment()
+            this.lateness.record(lateness)
+            if (lateness > LATE_THRESHOLD) lateTicks.increment()
+            if (periodic || lastDue == 0L) lastDue = due
+            lastStart = start
+            round()
+            lastEnd = clock()
+            roundTime.record(lastEnd - start)
+        }
+    }
+
+    fun dump(writer: PrintWriter?) {
+        writer?.println("scheduler: interval=$interval ticks=${ticks.count} late=${lateTicks.count} skipped=${skippedTicks.count} lateness $lateness")
+    }
+
+    companion object {
+        /**
+         * Rounds starting later than this after their due time are counted as late.
+         */
+        const val LATE_THRESHOLD = 100L
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import java.io.PrintWriter
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.min
+
+/**
+ * Named counters and histograms, safe to update from any thread without locking.
+ *
+ * Metrics are exported as one line per metric, `counter <name> <value>` or
+ * `histogram <name> count=<n> sum=<sum> max=<max> p50=<v> p90=<v> p99=<v> p999=<v>`.
+ */
+class MetricsRegistry {
+    class Counter internal constructor() {
+        private val value = AtomicLong()
+
+        val count: Long
+            get() = value.get()
+
+        fun increment(delta: Long = 1) {
+            value.addAndGet(delta)
+        }
+    }
+
+    /**
+     * Histogram of non-negative values with log-linear buckets, like HdrHistogram with [SUB_BUCKET_BITS] bits of
+     * precision. Values are clamped to [MAX_VALUE].
+     *
+     * Histograms created outside of a registry are not exported, e.g. to keep a window of recent values using [decay].
+     */
+    class Histogram {
+        private val buckets = AtomicLongArray(BUCKETS)
+        private val total = AtomicLong()
+        private val sum = AtomicLong()
+        private val max = AtomicLong()
+
+        val count: Long
+            get() = total.get()
+
+        fun record(value: Long) {
+            val clamped = value.coerceIn(0, MAX_VALUE)
+            buckets.incrementAndGet(bucketOf(clamped))
+            total.incrementAndGet()
+            sum.addAndGet(clamped)
+            while (true) {
+                val current = max.get()
+                if (clamped <= current || max.compareAndSet(current, clamped)) break
+            }
+        }
+
+        /**
+         * Halves the counts of all buckets and the sum, so older values count less than recent ones. The maximum is
+         * kept. Values recorded concurrently may be lost from [count].
+         */
+        fun decay() {
+            var remaining = 0L
+            for (i in 0 until BUCKETS) {
+                while (true) {
+                    val current = buckets.get(i)
+                    if (buckets.compareAndSet(i, current, current / 2)) {
+                        remaining += current / 2
+                        break
+                    }
+                }
+            }
+            total.set(remaining)
+            while (true) {
+                val current = sum.get()
+                if (sum.compareAndSet(current, current / 2)) break
+            }
+        }
+
+        /**
+         * @return The upper bound of the bucket below which [percentile] of the recorded values are.
+         */
+        fun percentile(percentile: Double): Long {
+            val counts = LongArray(BUCKETS) { buckets.get(it) }
+            val total = counts.sum()
+            if (total == 0L) return 0
+            val target = (total * percentile).toLong().coerceIn(1, total)
+            var count = 0L
+            for (i in counts.indices) {
+                count += counts[i]
+                if (count >= target) return min(upperBoundOf(i), max.get())
+            }
+            return max.get()
+        }
+
+        override fun toString(): String =
+                "count=$count sum=${sum.get()} max=${max.get()} p50=${percentile(0.5)} p90=${percentile(0.9)} p99=${percentile(0.99)} p999=${percentile(0.999)}"
+    }
+
+    private val counters = ConcurrentHashMap<String, Counter>()
+    private val histograms = ConcurrentHashMap<String, Histogram>()
+
+    fun counter(name: String): Counter = counters.getOrPut(name) { Counter() }
+
+    fun histogram(name: String): Histogram = histograms.getOrPut(name) { Histogram() }
+
+    /**
+     * Removes all metrics whose name starts with [prefix], e.g. those of a listener that is gone.
+     */
+    fun remove(prefix: String) {
+        counters.keys.removeAll { it.startsWith(prefix) }
+        histograms.keys.removeAll { it.startsWith(prefix) }
+    }
+
+    /**
+     * @return All metrics, one line per metric, sorted by name.
+     */
+    fun export(): List<String> {
+        val lines = ArrayList<String>()
+        for ((name, counter) in counters.toSortedMap()) lines.add("counter $name ${counter.count}")
+        for ((name, histogram) in histograms.toSortedMap()) lines.add("histogram $name $histogram")
+        return lines
+    }
+
+    fun dump(writer: PrintWriter?) {
+        writer?.println("metrics:")
+        for (line in export()) writer?.println("  $line")
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 3
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        private const val MAX_BITS = 40
+        private const val BUCKETS = (MAX_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS
+        const val MAX_VALUE = (1L shl MAX_BITS) - 1
+
+        /**
+         * Metrics of the location pipeline of this process.
+         */
+        val location: MetricsRegistry by lazy { MetricsRegistry() }
+
+        private fun bucketOf(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val subBucket = (value shr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+            return min(BUCKETS - 1, (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket)
+        }
+
+        private fun upperBoundOf(bucket: Int): Long {
+            if (bucket < SUB_BUCKETS) return bucket.toLong()
+            val exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1
+            val subBucket = bucket % SUB_BUCKETS
+            return ((SUB_BUCKETS + subBucket + 1).toLong() shl (exponent - SUB_BUCKET_BITS)) - 1
+        }
+    }
+}
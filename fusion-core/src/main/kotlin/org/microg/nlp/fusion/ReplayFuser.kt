@@ -0,0 +1,77 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+/**
+ * Fuses backend results read from a trace the way the location service does.
+ *
+ * The latest result of each component is kept, using the same rules as the service to drop stale results. After every
+ * accepted result, the kept results are run through the [FusionPipeline] of the service, and each fused fix newer than
+ * the previous one is passed to [listener].
+ *
+ * @param weight Weight of a component. The service uses the weight learned from backend statistics instead.
+ */
+class ReplayFuser(smoother: LocationSmoother = KalmanLocationSmoother(), private val weight: (String) -> Double = { 1.0 }, private val listener: (Fix) -> Unit) {
+    private val latest = LinkedHashMap<String, Fix>()
+    private val fixes = ArrayList<Fix>()
+    private val pipeline = FusionPipeline(smoother, object : LocationOutlierFilter.Listener {
+        override fun onRejected(location: Fix, reason: LocationOutlierFilter.Reason) {
+            rejected++
+        }
+    })
+
+    /**
+     * Number of backend results accepted.
+     */
+    var accepted: Int = 0
+        private set
+
+    /**
+     * Number of times a backend result was rejected as outlier.
+     */
+    var rejected: Int = 0
+        private set
+
+    /**
+     * Number of fused fixes passed to the listener.
+     */
+    var reported: Int = 0
+        private set
+
+    fun onEvent(event: TraceEvent) {
+        val fix = event.fix ?: return
+        if (!fix.hasAccuracy) return
+        val last = latest[event.component]
+        val stale = when (event.kind) {
+            TraceEvent.Kind.UPDATE -> last != null && fix.time <= last.time
+            TraceEvent.Kind.REPORT -> last != null && fix.time > 0 && fix.time <= last.time
+        }
+        if (stale) return
+        val copy = fix.copy()
+        if (copy.time <= 0) copy.time = event.wallTime
+        copy.source = event.component
+        latest[event.component] = copy
+        accepted++
+        update()
+    }
+
+    private fun update() {
+        fixes.clear()
+        fixes.addAll(latest.values)
+        val fused = pipeline.fuse(fixes) { weight(it.source as String) } ?: return
+        if (!pipeline.report(fused)) return
+        reported++
+        listener(fused)
+    }
+
+    fun reset() {
+        latest.clear()
+        pipeline.reset()
+        accepted = 0
+        rejected = 0
+        reported = 0
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import java.util.TreeMap
+
+/**
+ * Sorted multisets of the intervals and accuracies of location requests, so the merged interval and accuracy are
+ * available in constant time and adding or removing a request is logarithmic.
+ *
+ * Not thread-safe, callers synchronize.
+ */
+class RequestIndex {
+    private val intervals = TreeMap<Long, Int>()
+    private val accuracies = TreeMap<Float, Int>()
+    private var singleUpdates = 0
+
+    /**
+     * Smallest indexed interval, [Long.MAX_VALUE] if there is none.
+     */
+    val minInterval: Long
+        get() = if (intervals.isEmpty()) Long.MAX_VALUE else intervals.firstKey()
+
+    /**
+     * Best indexed accuracy, [Float.MAX_VALUE] if there is none.
+     */
+    val minAccuracy: Float
+        get() = if (accuracies.isEmpty()) Float.MAX_VALUE else accuracies.firstKey()
+
+    /**
+     * Whether any request waits for a single update without interval.
+     */
+    val hasSingleUpdate: Boolean
+        get() = singleUpdates > 0
+
+    /**
+     * Adds a request. Intervals and accuracies that are not positive are not indexed.
+     */
+    fun add(interval: Long, accuracy: Float, singleUpdate: Boolean) {
+        if (interval > 0) intervals.increment(interval)
+        if (accuracy > 0) accuracies.increment(accuracy)
+        if (singleUpdate) singleUpdates++
+    }
+
+    /**
+     * Removes a request previously added with the same arguments.
+     */
+    fun remove(interval: Long, accuracy: Float, singleUpdate: Boolean) {
+        if (interval > 0) intervals.decrement(interval)
+        if (accuracy > 0) accuracies.decrement(accuracy)
+        if (singleUpdate) singleUpdates--
+    }
+
+    private fun <K> TreeMap<K, Int>.increment(key: K) {
+        put(key, (get(key) ?: 0) + 1)
+    }
+
+    private fun <K> TreeMap<K, Int>.decrement(key: K) {
+        val count = get(key) ?: return
+        if (count <= 1) remove(key) else put(key, count - 1)
+    }
+}
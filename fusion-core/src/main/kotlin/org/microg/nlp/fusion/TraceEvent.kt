@@ -0,0 +1,31 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+/**
+ * A backend result read from a trace.
+ *
+ * @property session Index of the recording session in the trace, starting at 0. Timestamps are only comparable within
+ * a session.
+ * @property timestamp Monotonic time in milliseconds when the result was received.
+ * @property wallTime UTC time in milliseconds when the result was received, derived from the session start.
+ * @property fix The reported location, null if the backend returned none.
+ */
+class TraceEvent(val kind: Kind, val component: String, val session: Int, val timestamp: Long, val wallTime: Long, val fix: Fix?) {
+    enum class Kind {
+        /**
+         * Location reported asynchronously by the backend.
+         */
+        REPORT,
+
+        /**
+         * Result of a location update requested from the backend.
+         */
+        UPDATE
+    }
+
+    override fun toString(): String = "TraceEvent[$kind $component session=$session timestamp=$timestamp fix=$fix]"
+}
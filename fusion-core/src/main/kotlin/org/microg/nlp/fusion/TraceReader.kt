@@ -0,0 +1,108 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.microg.nlp.fusion.TraceWriter.Companion.FLAG_BEARING
+import org.microg.nlp.fusion.TraceWriter.Companion.FLAG_FIX
+import org.microg.nlp.fusion.TraceWriter.Companion.FLAG_SPEED
+import org.microg.nlp.fusion.TraceWriter.Companion.MAGIC
+import org.microg.nlp.fusion.TraceWriter.Companion.RECORD_COMPONENT
+import org.microg.nlp.fusion.TraceWriter.Companion.RECORD_REPORT
+import org.microg.nlp.fusion.TraceWriter.Companion.RECORD_SESSION
+import org.microg.nlp.fusion.TraceWriter.Companion.RECORD_UPDATE
+import org.microg.nlp.fusion.TraceWriter.Companion.VERSION
+import java.io.BufferedInputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Reads the backend results of a trace written by [TraceWriter].
+ *
+ * A record cut off at the end of the trace, as left behind when the writing process died, ends the trace.
+ *
+ * Not thread-safe.
+ */
+class TraceReader(input: InputStream) : Closeable {
+    private val input = DataInputStream(BufferedInputStream(input))
+    private val components = ArrayList<String>()
+    private var session = -1
+    private var sessionWallTime: Long = 0
+    private var sessionTimestamp: Long = 0
+
+    /**
+     * @return The next backend result, or null at the end of the trace.
+     * @throws IOException If the trace is malformed.
+     */
+    fun read(): TraceEvent? {
+        try {
+            while (true) {
+                when (val type = input.read()) {
+                    -1 -> return null
+                    RECORD_SESSION -> readSession()
+                    RECORD_COMPONENT -> readComponent()
+                    RECORD_REPORT -> return readEvent(TraceEvent.Kind.REPORT)
+                    RECORD_UPDATE -> return readEvent(TraceEvent.Kind.UPDATE)
+                    else -> throw IOException("Unknown record type $type")
+                }
+            }
+        } catch (e: EOFException) {
+            return null
+        }
+    }
+
+    /**
+     * @return All remaining backend results.
+     */
+    fun readAll(): List<TraceEvent> {
+        val events = ArrayList<TraceEvent>()
+        while (true) events.add(read() ?: return events)
+    }
+
+    private fun readSession() {
+        if (input.readInt() != MAGIC) throw IOException("Not a trace")
+        val version = input.readUnsignedByte()
+        if (version != VERSION) throw IOException("Unsupported trace version $version")
+        sessionWallTime = input.readLong()
+        sessionTimestamp = input.readLong()
+        components.clear()
+        session++
+    }
+
+    private fun readComponent() {
+        val id = input.readUnsignedShort()
+        val component = input.readUTF()
+        if (id != components.size) throw IOException("Unexpected component $id")
+        components.add(component)
+    }
+
+    private fun readEvent(kind: TraceEvent.Kind): TraceEvent {
+        if (session < 0) throw IOException("Record outside of session")
+        val id = input.readUnsignedShort()
+        val component = components.getOrNull(id) ?: throw IOException("Undefined component $id")
+        val timestamp = input.readLong()
+        val flags = input.readUnsignedByte()
+        var fix: Fix? = null
+        if (flags and FLAG_FIX != 0) {
+            fix = Fix(input.readDouble(), input.readDouble(), input.readFloat(), input.readLong())
+            if (flags and FLAG_SPEED != 0) {
+                fix.speed = input.readFloat()
+                fix.hasSpeed = true
+            }
+            if (flags and FLAG_BEARING != 0) {
+                fix.bearing = input.readFloat()
+                fix.hasBearing = true
+            }
+        }
+        return TraceEvent(kind, component, session, timestamp, sessionWallTime + timestamp - sessionTimestamp, fix)
+    }
+
+    override fun close() {
+        input.close()
+    }
+}
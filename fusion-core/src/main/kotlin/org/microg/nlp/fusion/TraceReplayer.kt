@@ -0,0 +1,47 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import kotlinx.coroutines.delay
+
+/**
+ * Feeds the backend results of a trace to [sink].
+ *
+ * Within a session, results are fed at their recorded timing divided by [speed]. Results of the next session follow
+ * immediately. With a [speed] of [Double.POSITIVE_INFINITY], results are fed as fast as possible.
+ */
+class TraceReplayer(private val reader: TraceReader, private val speed: Double = 1.0, private val sink: (TraceEvent) -> Unit) {
+    init {
+        require(speed > 0) { "Speed must be positive" }
+    }
+
+    /**
+     * Replays the remaining trace.
+     *
+     * @return The number of results fed to [sink].
+     */
+    suspend fun replay(): Int {
+        var count = 0
+        var session = -1
+        var sessionStart: Long = 0
+        var firstTimestamp: Long = 0
+        while (true) {
+            val event = reader.read() ?: return count
+            if (event.session != session) {
+                session = event.session
+                sessionStart = System.nanoTime()
+                firstTimestamp = event.timestamp
+            } else if (!speed.isInfinite()) {
+                // Wait relative to the session start, so time spent in the sink does not add up
+                val due = sessionStart + ((event.timestamp - firstTimestamp) * 1000000 / speed).toLong()
+                val wait = (due - System.nanoTime()) / 1000000
+                if (wait > 0) delay(wait)
+            }
+            sink(event)
+            count++
+        }
+    }
+}
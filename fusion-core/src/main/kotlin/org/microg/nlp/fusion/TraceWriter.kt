@@ -0,0 +1,104 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.OutputStream
+
+/**
+ * Writes backend results in the binary trace format read by [TraceReader].
+ *
+ * A trace is a sequence of sessions, so a trace file can be appended to across restarts. Each session starts with a
+ * header holding the wall clock and monotonic time at its start. Components are written once per session and are
+ * referenced by index afterwards. A result takes 12 bytes without location and 40 to 48 bytes with one.
+ *
+ * Not thread-safe.
+ */
+class TraceWriter(output: OutputStream) : Closeable {
+    private val output = DataOutputStream(BufferedOutputStream(output))
+    private val components = HashMap<String, Int>()
+    private var inSession = false
+
+    /**
+     * Number of bytes written by this writer.
+     */
+    val bytesWritten: Int
+        get() = output.size()
+
+    /**
+     * Starts a new session. Must be called before the first result is written.
+     *
+     * @param wallTime UTC time in milliseconds.
+     * @param timestamp Monotonic time in milliseconds at the same instant.
+     */
+    fun beginSession(wallTime: Long, timestamp: Long) {
+        components.clear()
+        output.writeByte(RECORD_SESSION)
+        output.writeInt(MAGIC)
+        output.writeByte(VERSION)
+        output.writeLong(wallTime)
+        output.writeLong(timestamp)
+        inSession = true
+    }
+
+    /**
+     * Writes a backend result.
+     *
+     * @param timestamp Monotonic time in milliseconds when the result was received.
+     * @param fix The reported location, null if the backend returned none.
+     */
+    fun write(kind: TraceEvent.Kind, component: String, timestamp: Long, fix: Fix?) {
+        check(inSession) { "No session started" }
+        val id = components[component] ?: defineComponent(component)
+        output.writeByte(if (kind == TraceEvent.Kind.REPORT) RECORD_REPORT else RECORD_UPDATE)
+        output.writeShort(id)
+        output.writeLong(timestamp)
+        if (fix == null) {
+            output.writeByte(0)
+            return
+        }
+        output.writeByte(FLAG_FIX or (if (fix.hasSpeed) FLAG_SPEED else 0) or (if (fix.hasBearing) FLAG_BEARING else 0))
+        output.writeDouble(fix.latitude)
+        output.writeDouble(fix.longitude)
+        output.writeFloat(fix.accuracy)
+        output.writeLong(fix.time)
+        if (fix.hasSpeed) output.writeFloat(fix.speed)
+        if (fix.hasBearing) output.writeFloat(fix.bearing)
+    }
+
+    private fun defineComponent(component: String): Int {
+        check(components.size < MAX_COMPONENTS) { "Too many components" }
+        val id = components.size
+        output.writeByte(RECORD_COMPONENT)
+        output.writeShort(id)
+        output.writeUTF(component)
+        components[component] = id
+        return id
+    }
+
+    fun flush() {
+        output.flush()
+    }
+
+    override fun close() {
+        output.close()
+    }
+
+    internal companion object {
+        const val MAGIC = 0x554e4c54 // "UNLT"
+        const val VERSION = 1
+        const val RECORD_SESSION = 1
+        const val RECORD_COMPONENT = 2
+        const val RECORD_REPORT = 3
+        const val RECORD_UPDATE = 4
+        const val FLAG_FIX = 1
+        const val FLAG_SPEED = 2
+        const val FLAG_BEARING = 4
+        const val MAX_COMPONENTS = 0xffff
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class FusionPipelineTest {
+    private val rejected = ArrayList<Pair<Any?, LocationOutlierFilter.Reason>>()
+    private val smoother = CountingSmoother()
+    private val pipeline = FusionPipeline(smoother, object : LocationOutlierFilter.Listener {
+        override fun onRejected(location: Fix, reason: LocationOutlierFilter.Reason) {
+            rejected.add(location.source to reason)
+        }
+    })
+
+    private class CountingSmoother : LocationSmoother {
+        var smoothed = 0
+        var resets = 0
+
+        override fun smooth(location: Fix) {
+            smoothed++
+        }
+
+        override fun reset() {
+            resets++
+        }
+    }
+
+    private fun consensusOutlier() = mutableListOf(
+            Fix(52.5, 13.4, 20f, TIME, "a"),
+            Fix(52.5001, 13.4, 20f, TIME, "b"),
+            Fix(52.5, 13.4001, 20f, TIME, "c"),
+            Fix(48.1, 11.6, 20f, TIME, "far"))
+
+    @Test
+    fun invalidFixesAreRemovedAndBestIsFirst() {
+        val fixes = mutableListOf(
+                Fix(52.5, 13.4, 50f, TIME, "b"),
+                Fix(52.5, 13.4, Float.NaN, TIME, "no accuracy"),
+                Fix(Double.NaN, 13.4, 10f, TIME, "no latitude"),
+                Fix(52.5, 13.4, 10f, TIME, "a"))
+        val fused = pipeline.fuse(fixes) { 1.0 }!!
+        assertEquals(listOf("a", "b"), fixes.map { it.source })
+        assertEquals("a", fused.source)
+        assertTrue(fused.accuracy < 10f)
+    }
+
+    @Test
+    fun nothingValidFusesToNull() {
+        assertNull(pipeline.fuse(mutableListOf(Fix(52.5, 13.4, Float.NaN, TIME, "a"))) { 1.0 })
+    }
+
+    @Test
+    fun fuseNotifiesOutliers() {
+        val fixes = consensusOutlier()
+        pipeline.fuse(fixes) { 1.0 }
+        assertEquals(listOf("a", "b", "c"), fixes.map { it.source })
+        assertEquals(listOf("far" to LocationOutlierFilter.Reason.CONSENSUS), rejected)
+    }
+
+    @Test
+    fun estimateDoesNotNotifyOutliers() {
+        val fixes = consensusOutlier()
+        assertNotNull(pipeline.estimate(fixes) { 1.0 })
+        assertEquals(3, fixes.size)
+        assertTrue(rejected.isEmpty())
+    }
+
+    @Test
+    fun speedIsCheckedAgainstLastReported() {
+        pipeline.report(Fix(52.5, 13.4, 20f, TIME, "a"))
+        val fixes = mutableListOf(Fix(52.5, 13.4001, 20f, TIME + 1000, "a"), Fix(48.1, 11.6, 20f, TIME + 1000, "far"))
+        pipeline.fuse(fixes) { 1.0 }
+        assertEquals(listOf("a"), fixes.map { it.source })
+        assertEquals(listOf("far" to LocationOutlierFilter.Reason.SPEED), rejected)
+    }
+
+    @Test
+    fun onlyNewerFixesAreReported() {
+        val first = Fix(52.5, 13.4, 20f, TIME, "a")
+        assertTrue(pipeline.report(first))
+        assertSame(first, pipeline.lastReported)
+        assertFalse(pipeline.isNewer(Fix(52.5, 13.4, 20f, TIME, "b")))
+        assertFalse(pipeline.report(Fix(52.5, 13.4, 20f, TIME - 1, "b")))
+        assertSame(first, pipeline.lastReported)
+        assertTrue(pipeline.report(Fix(52.5, 13.4, 20f, TIME + 1, "b")))
+        assertEquals(2, smoother.smoothed)
+    }
+
+    @Test
+    fun resetForgetsLastReported() {
+        pipeline.report(Fix(52.5, 13.4, 20f, TIME, "a"))
+        pipeline.reset()
+        assertNull(pipeline.lastReported)
+        assertEquals(1, smoother.resets)
+        assertTrue(pipeline.report(Fix(52.5, 13.4, 20f, TIME - 1000, "a")))
+    }
+
+    companion object {
+        private const val TIME = 1_600_000_000_000L
+    }
+}
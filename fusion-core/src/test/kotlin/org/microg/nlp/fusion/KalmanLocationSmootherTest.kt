@@ -0,0 +1,106 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+
+class KalmanLocationSmootherTest {
+    private val smoother = KalmanLocationSmoother()
+
+    private fun smooth(fix: Fix): Fix = fix.also { smoother.smooth(it) }
+
+    /**
+     * @return A fix [east] and [north] meters from [latitude], [longitude].
+     */
+    private fun fixAt(latitude: Double, longitude: Double, east: Double, north: Double, accuracy: Float, time: Long) =
+            Fix(latitude + north / METERS_PER_DEGREE, longitude + east / (METERS_PER_DEGREE * cos(Math.toRadians(latitude))), accuracy, time)
+
+    @Test
+    fun firstFixIsKept() {
+        val fix = smooth(Fix(52.52, 13.405, 20f, TIME))
+        assertEquals(52.52, fix.latitude, 1e-9)
+        assertEquals(13.405, fix.longitude, 1e-9)
+        assertEquals(20f, fix.accuracy, 1e-3f)
+        assertFalse(fix.hasSpeed)
+        assertFalse(fix.hasBearing)
+    }
+
+    @Test
+    fun stationaryFixesImproveAccuracy() {
+        var fix: Fix? = null
+        for (i in 0 until 10) fix = smooth(Fix(52.52, 13.405, 20f, TIME + i * 1000L))
+        assertEquals(52.52, fix!!.latitude, 1e-9)
+        assertEquals(13.405, fix.longitude, 1e-9)
+        assertTrue("accuracy ${fix.accuracy}", fix.accuracy < 20f)
+        assertTrue(fix.hasSpeed)
+        assertEquals(0f, fix.speed, 0.5f)
+        assertFalse(fix.hasBearing)
+    }
+
+    @Test
+    fun convertsAcrossAntimeridian() {
+        smooth(Fix(0.0, 179.9999, 10f, TIME))
+        val fix = smooth(Fix(0.0, -179.9999, 10f, TIME + 1000))
+        // Both fixes are about 22 m apart, not on opposite sides of the globe
+        assertEquals(180.0, abs(fix.longitude), 2e-4)
+        assertEquals(0.0, fix.latitude, 1e-9)
+    }
+
+    @Test
+    fun estimatesSpeedAndBearing() {
+        var east: Fix? = null
+        for (i in 0..30) east = smooth(fixAt(52.52, 13.405, i * 10.0, 0.0, 5f, TIME + i * 1000L))
+        assertTrue(east!!.hasSpeed)
+        assertEquals(10f, east.speed, 1f)
+        assertTrue(east.hasBearing)
+        assertEquals(90f, east.bearing, 5f)
+
+        smoother.reset()
+        var south: Fix? = null
+        for (i in 0..30) south = smooth(fixAt(52.52, 13.405, 0.0, i * -5.0, 5f, TIME + i * 1000L))
+        assertEquals(5f, south!!.speed, 1f)
+        assertEquals(180f, south.bearing, 5f)
+    }
+
+    @Test
+    fun largeGapResets() {
+        for (i in 0..10) smooth(fixAt(52.52, 13.405, i * 10.0, 0.0, 5f, TIME + i * 1000L))
+        val afterGap = fixAt(52.52, 13.405, 120.0, 0.0, 5f, TIME + 10000 + 301000)
+        val latitude = afterGap.latitude
+        val longitude = afterGap.longitude
+        smooth(afterGap)
+        assertEquals(latitude, afterGap.latitude, 1e-9)
+        assertEquals(longitude, afterGap.longitude, 1e-9)
+        assertEquals(5f, afterGap.accuracy, 1e-3f)
+        assertFalse(afterGap.hasSpeed)
+    }
+
+    @Test
+    fun smallGapKeepsState() {
+        for (i in 0..10) smooth(fixAt(52.52, 13.405, i * 10.0, 0.0, 5f, TIME + i * 1000L))
+        val afterGap = smooth(fixAt(52.52, 13.405, 120.0, 0.0, 5f, TIME + 10000 + 299000))
+        assertTrue(afterGap.hasSpeed)
+    }
+
+    @Test
+    fun resetForgetsState() {
+        for (i in 0..10) smooth(fixAt(52.52, 13.405, i * 10.0, 0.0, 5f, TIME + i * 1000L))
+        smoother.reset()
+        val fix = smooth(Fix(48.1, 11.6, 30f, TIME))
+        assertEquals(48.1, fix.latitude, 1e-9)
+        assertEquals(11.6, fix.longitude, 1e-9)
+        assertFalse(fix.hasSpeed)
+    }
+
+    companion object {
+        private const val TIME = 1_600_000_000_000L
+        private const val METERS_PER_DEGREE = 6371008.8 * PI / 180.0
+    }
+}
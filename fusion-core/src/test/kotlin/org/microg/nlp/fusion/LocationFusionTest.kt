@@ -0,0 +1,83 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+class LocationFusionTest {
+    private fun fuse(vararg fixes: Fix): Fix? = LocationFusion.fuse(fixes.sortedWith(FixComparator))
+
+    @Test
+    fun emptyFusesToNull() {
+        assertNull(LocationFusion.fuse(emptyList()))
+    }
+
+    @Test
+    fun singleFixIsCopied() {
+        val fix = Fix(52.5, 13.4, 20f, TIME, "a")
+        val fused = fuse(fix)!!
+        assertNotSame(fix, fused)
+        assertEquals(52.5, fused.latitude, 0.0)
+        assertEquals(13.4, fused.longitude, 0.0)
+        assertEquals(20f, fused.accuracy, 0f)
+        assertEquals("a", fused.source)
+    }
+
+    @Test
+    fun agreeingFixesImproveAccuracy() {
+        val fused = fuse(Fix(52.5, 13.4, 10f, TIME, "a"), Fix(52.5, 13.4, 10f, TIME, "b"))!!
+        assertEquals(52.5, fused.latitude, 1e-9)
+        assertEquals(13.4, fused.longitude, 1e-9)
+        assertEquals(10 / sqrt(2.0), fused.accuracy.toDouble(), 0.01)
+    }
+
+    @Test
+    fun moreAccurateFixWeighsMore() {
+        val fused = fuse(Fix(0.0, 0.0, 10f, TIME, "a"), Fix(0.0, 0.001, 30f, TIME, "b"))!!
+        assertEquals("a", fused.source)
+        assertTrue(fused.longitude > 0.0)
+        assertTrue(fused.longitude < 0.0005)
+    }
+
+    @Test
+    fun disagreeingFixesInflateAccuracy() {
+        // About 1 km apart, both claiming 10 m
+        val fused = fuse(Fix(0.0, 0.0, 10f, TIME, "a"), Fix(0.0, 0.009, 10f, TIME, "b"))!!
+        assertEquals(0.0045, fused.longitude, 1e-6)
+        assertTrue("accuracy ${fused.accuracy}", fused.accuracy > 300)
+    }
+
+    @Test
+    fun staleFixesAreIgnored() {
+        val fused = fuse(Fix(0.0, 0.0, 10f, TIME, "a"), Fix(0.0, 0.009, 10f, TIME - LocationFusion.MAX_FIX_AGE_MS - 1, "b"))!!
+        assertEquals(0.0, fused.longitude, 0.0)
+        assertEquals(10f, fused.accuracy, 0f)
+    }
+
+    @Test
+    fun fusesAcrossAntimeridian() {
+        val fused = fuse(Fix(0.0, 179.9999, 10f, TIME, "a"), Fix(0.0, -179.9999, 10f, TIME, "b"))!!
+        assertEquals(180.0, abs(fused.longitude), 1e-6)
+        assertTrue("accuracy ${fused.accuracy}", fused.accuracy < 20)
+    }
+
+    @Test
+    fun onlyWeightedFixesContribute() {
+        val reference = Fix(0.0, 0.0, 10f, TIME, "a")
+        assertTrue(LocationFusion.contributes(reference, reference))
+        assertTrue(LocationFusion.contributes(Fix(0.0, 0.001, 30f, TIME - 1000, "b"), reference))
+        assertFalse(LocationFusion.contributes(Fix(0.0, 0.001, 30f, TIME - LocationFusion.MAX_FIX_AGE_MS - 1, "b"), reference))
+        assertFalse(LocationFusion.contributes(Fix(0.0, 0.001, time = TIME, source = "b"), reference))
+        assertFalse(LocationFusion.contributes(Fix(0.0, 0.001, 30f, TIME, "b"), reference) { 0.0 })
+    }
+
+    companion object {
+        private const val TIME = 1_600_000_000_000L
+    }
+}
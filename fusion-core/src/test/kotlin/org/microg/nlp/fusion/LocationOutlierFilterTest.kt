@@ -0,0 +1,103 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class LocationOutlierFilterTest {
+    private val rejected = ArrayList<Pair<Any?, LocationOutlierFilter.Reason>>()
+    private val filter = LocationOutlierFilter(object : LocationOutlierFilter.Listener {
+        override fun onRejected(location: Fix, reason: LocationOutlierFilter.Reason) {
+            rejected.add(location.source to reason)
+        }
+    })
+
+    private fun filter(previous: Fix?, vararg fixes: Fix): List<Any?> {
+        val list = fixes.toMutableList()
+        filter.filter(list, previous)
+        return list.map { it.source }
+    }
+
+    @Test
+    fun minorityOutlierIsRejected() {
+        val kept = filter(null,
+                Fix(52.5, 13.4, 20f, TIME, "a"),
+                Fix(52.5001, 13.4, 20f, TIME, "b"),
+                Fix(52.5, 13.4001, 20f, TIME, "c"),
+                Fix(48.1, 11.6, 20f, TIME, "far"))
+        assertEquals(listOf("a", "b", "c"), kept)
+        assertEquals(listOf("far" to LocationOutlierFilter.Reason.CONSENSUS), rejected)
+    }
+
+    @Test
+    fun majorityIsKept() {
+        val kept = filter(null,
+                Fix(48.1, 11.6, 20f, TIME, "x"),
+                Fix(48.1, 11.6, 20f, TIME, "y"),
+                Fix(52.5, 13.4, 20f, TIME, "a"),
+                Fix(52.5, 13.4, 20f, TIME, "b"),
+                Fix(52.5, 13.4, 20f, TIME, "c"))
+        assertEquals(listOf("a", "b", "c"), kept)
+        assertEquals(setOf("x", "y"), rejected.map { it.first }.toSet())
+    }
+
+    @Test
+    fun splitWithoutMajorityIsNotRejected() {
+        val kept = filter(null,
+                Fix(48.1, 11.6, 20f, TIME, "x"),
+                Fix(48.1, 11.6, 20f, TIME, "y"),
+                Fix(52.5, 13.4, 20f, TIME, "a"),
+                Fix(52.5, 13.4, 20f, TIME, "b"))
+        assertEquals(listOf("x", "y", "a", "b"), kept)
+        assertTrue(rejected.isEmpty())
+    }
+
+    @Test
+    fun twoResultsAreNotTestedForConsensus() {
+        val kept = filter(null, Fix(48.1, 11.6, 20f, TIME, "x"), Fix(52.5, 13.4, 20f, TIME, "a"))
+        assertEquals(listOf("x", "a"), kept)
+    }
+
+    @Test
+    fun implausibleSpeedIsRejected() {
+        val previous = Fix(52.5, 13.4, 20f, TIME - 10000)
+        val kept = filter(previous, Fix(52.5005, 13.4, 20f, TIME, "near"), Fix(48.1, 11.6, 20f, TIME, "far"))
+        assertEquals(listOf("near"), kept)
+        assertEquals(listOf("far" to LocationOutlierFilter.Reason.SPEED), rejected)
+    }
+
+    @Test
+    fun speedTestNeverRejectsAll() {
+        val previous = Fix(52.5, 13.4, 20f, TIME - 10000)
+        val kept = filter(previous, Fix(48.1, 11.6, 20f, TIME, "x"), Fix(48.1001, 11.6, 20f, TIME, "y"))
+        assertEquals(listOf("x", "y"), kept)
+        assertTrue(rejected.isEmpty())
+    }
+
+    @Test
+    fun speedTestAcrossAntimeridian() {
+        val previous = Fix(0.0, 179.9999, 10f, TIME - 1000)
+        val kept = filter(previous, Fix(0.0, -179.9999, 10f, TIME, "east"))
+        assertEquals(listOf("east"), kept)
+        assertTrue(rejected.isEmpty())
+    }
+
+    @Test
+    fun consensusAcrossAntimeridian() {
+        val kept = filter(null,
+                Fix(0.0, 179.9999, 20f, TIME, "a"),
+                Fix(0.0, -179.9999, 20f, TIME, "b"),
+                Fix(0.0, 179.9998, 20f, TIME, "c"),
+                Fix(10.0, 10.0, 20f, TIME, "far"))
+        assertEquals(listOf("a", "b", "c"), kept)
+        assertEquals(listOf("far" to LocationOutlierFilter.Reason.CONSENSUS), rejected)
+    }
+
+    companion object {
+        private const val TIME = 1_600_000_000_000L
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestCoroutineScope
+import kotlinx.coroutines.test.runBlockingTest
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LocationUpdateSchedulerTest {
+    private val metrics = MetricsRegistry()
+    private val starts = ArrayList<Long>()
+
+    /**
+     * Creates a scheduler running on the virtual time of the test, starting at [START], whose rounds take the time
+     * given by [duration] for the index of the round.
+     */
+    private fun TestCoroutineScope.scheduler(duration: (Int) -> Long = { 0 }): LocationUpdateScheduler {
+        val clock = { START + currentTime }
+        return LocationUpdateScheduler(MIN_INTERVAL, clock, metrics) {
+            starts.add(clock() - START)
+            delay(duration(starts.size - 1))
+        }
+    }
+
+    private fun TestCoroutineScope.start(scheduler: LocationUpdateScheduler) {
+        scheduler.start { block -> launch { block() } }
+    }
+
+    @Test
+    fun roundsRunAtInterval() = runBlockingTest {
+        val scheduler = scheduler()
+        scheduler.setInterval(1000)
+        start(scheduler)
+        advanceTimeBy(3500)
+        scheduler.stop()
+        assertEquals(listOf(0L, 1000L, 2000L, 3000L), starts)
+        assertEquals(0L, metrics.counter("scheduler.skipped_ticks").count)
+    }
+
+    @Test
+    fun slowRoundSkipsMissedSlots() = runBlockingTest {
+        val scheduler = scheduler { if (it == 0) 2500 else 0 }
+        scheduler.setInterval(1000)
+        start(scheduler)
+        advanceTimeBy(4500)
+        scheduler.stop()
+        // The slot at 1000 was missed, the one at 2000 runs late, then the schedule is back in phase
+        assertEquals(listOf(0L, 2500L, 3000L, 4000L), starts)
+        assertEquals(1L, metrics.counter("scheduler.skipped_ticks").count)
+    }
+
+    @Test
+    fun intervalChangeKeepsPhase() = runBlockingTest {
+        val scheduler = scheduler()
+        scheduler.setInterval(1000)
+        start(scheduler)
+        advanceTimeBy(1500)
+        scheduler.setInterval(3000)
+        advanceTimeBy(3500)
+        scheduler.stop()
+        assertEquals(listOf(0L, 1000L, 4000L), starts)
+    }
+
+    @Test
+    fun requestNowRespectsMinInterval() = runBlockingTest {
+        val scheduler = scheduler()
+        scheduler.setInterval(10000)
+        start(scheduler)
+        advanceTimeBy(100)
+        scheduler.setInterval(10000, requestNow = true)
+        advanceTimeBy(1000)
+        scheduler.stop()
+        assertEquals(listOf(0L, MIN_INTERVAL), starts)
+    }
+
+    @Test
+    fun noRoundsWithoutInterval() = runBlockingTest {
+        val scheduler = scheduler()
+        start(scheduler)
+        advanceTimeBy(10000)
+        assertEquals(emptyList<Long>(), starts)
+        scheduler.setInterval(1000)
+        advanceTimeBy(500)
+        scheduler.stop()
+        assertEquals(listOf(10000L), starts)
+    }
+
+    companion object {
+        private const val START = 100000L
+        private const val MIN_INTERVAL = 500L
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class MetricsRegistryTest {
+    private val metrics = MetricsRegistry()
+
+    @Test
+    fun percentilesAreBucketBounds() {
+        val histogram = metrics.histogram("latency")
+        for (value in 1L..100L) histogram.record(value)
+        assertEquals(100L, histogram.count)
+        // Buckets have 3 bits of precision, 50 is in the bucket of 48 to 51
+        assertEquals(51L, histogram.percentile(0.5))
+        assertEquals(100L, histogram.percentile(1.0))
+    }
+
+    @Test
+    fun decayFavorsRecentValues() {
+        val histogram = MetricsRegistry.Histogram()
+        repeat(8) { histogram.record(5000) }
+        histogram.decay()
+        histogram.decay()
+        assertEquals(2L, histogram.count)
+        repeat(6) { histogram.record(10) }
+        assertEquals(10L, histogram.percentile(0.5))
+        assertEquals(5000L, histogram.percentile(1.0))
+    }
+
+    @Test
+    fun unregisteredHistogramsAreNotExported() {
+        MetricsRegistry.Histogram().record(1)
+        metrics.counter("calls").increment(3)
+        assertEquals(listOf("counter calls 3"), metrics.export())
+    }
+}
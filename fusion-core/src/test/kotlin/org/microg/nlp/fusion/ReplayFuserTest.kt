@@ -0,0 +1,98 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class ReplayFuserTest {
+    private val reported = ArrayList<Fix>()
+
+    private fun fuser(weight: (String) -> Double = { 1.0 }) = ReplayFuser(object : LocationSmoother {
+        override fun smooth(location: Fix) = Unit
+        override fun reset() = Unit
+    }, weight) { reported.add(it) }
+
+    private fun event(component: String, fix: Fix?, kind: TraceEvent.Kind = TraceEvent.Kind.UPDATE, wallTime: Long = TIME) =
+            TraceEvent(kind, component, 0, wallTime - TIME, wallTime, fix)
+
+    @Test
+    fun latestResultsAreFused() {
+        val fuser = fuser()
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME)))
+        fuser.onEvent(event("b", Fix(0.0, 0.001, 10f, TIME + 1000)))
+        assertEquals(2, fuser.accepted)
+        assertEquals(2, fuser.reported)
+        val fused = reported.last()
+        assertEquals("b", fused.source)
+        assertTrue(fused.longitude > 0.0 && fused.longitude < 0.001)
+    }
+
+    @Test
+    fun staleResultsAreIgnored() {
+        val fuser = fuser()
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME)))
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME)))
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME - 1000), TraceEvent.Kind.REPORT))
+        fuser.onEvent(event("a", Fix(0.0, 0.0), TraceEvent.Kind.REPORT))
+        fuser.onEvent(event("a", null))
+        assertEquals(1, fuser.accepted)
+        assertEquals(1, fuser.reported)
+    }
+
+    @Test
+    fun reportWithoutTimeUsesWallTime() {
+        val fuser = fuser()
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME)))
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, 0), TraceEvent.Kind.REPORT, TIME + 5000))
+        assertEquals(2, fuser.accepted)
+        assertEquals(TIME + 5000, reported.last().time)
+    }
+
+    @Test
+    fun olderFusedFixIsNotReported() {
+        val fuser = fuser()
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 10f, TIME + 5000)))
+        fuser.onEvent(event("b", Fix(0.0, 0.0, 50f, TIME)))
+        assertEquals(2, fuser.accepted)
+        assertEquals(1, fuser.reported)
+    }
+
+    @Test
+    fun componentWeightIsApplied() {
+        val fuser = fuser { if (it == "a") 0.0 else 1.0 }
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME)))
+        fuser.onEvent(event("b", Fix(0.0, 0.001, 10f, TIME + 1000)))
+        assertEquals(0.001, reported.last().longitude, 0.0)
+    }
+
+    @Test
+    fun outliersAreCounted() {
+        val fuser = fuser()
+        fuser.onEvent(event("a", Fix(52.5, 13.4, 20f, TIME)))
+        fuser.onEvent(event("b", Fix(52.5001, 13.4, 20f, TIME + 1000)))
+        fuser.onEvent(event("c", Fix(52.5, 13.4001, 20f, TIME + 2000)))
+        fuser.onEvent(event("far", Fix(48.1, 11.6, 20f, TIME + 3000)))
+        assertEquals(4, fuser.accepted)
+        assertEquals(1, fuser.rejected)
+        assertTrue(reported.none { it.source == "far" })
+    }
+
+    @Test
+    fun resetStartsOver() {
+        val fuser = fuser()
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME)))
+        fuser.reset()
+        assertEquals(0, fuser.accepted)
+        assertEquals(0, fuser.reported)
+        fuser.onEvent(event("a", Fix(0.0, 0.0, 20f, TIME - 1000)))
+        assertEquals(1, fuser.reported)
+    }
+
+    companion object {
+        private const val TIME = 1_600_000_000_000L
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class RequestIndexTest {
+    private val index = RequestIndex()
+
+    @Test
+    fun emptyIndex() {
+        assertEquals(Long.MAX_VALUE, index.minInterval)
+        assertEquals(Float.MAX_VALUE, index.minAccuracy, 0f)
+        assertFalse(index.hasSingleUpdate)
+    }
+
+    @Test
+    fun duplicatesAreCounted() {
+        index.add(1000, 50f, false)
+        index.add(1000, 50f, false)
+        index.add(5000, 100f, false)
+        assertEquals(1000L, index.minInterval)
+        assertEquals(50f, index.minAccuracy, 0f)
+
+        index.remove(1000, 50f, false)
+        assertEquals(1000L, index.minInterval)
+        assertEquals(50f, index.minAccuracy, 0f)
+
+        index.remove(1000, 50f, false)
+        assertEquals(5000L, index.minInterval)
+        assertEquals(100f, index.minAccuracy, 0f)
+
+        index.remove(5000, 100f, false)
+        assertEquals(Long.MAX_VALUE, index.minInterval)
+        assertEquals(Float.MAX_VALUE, index.minAccuracy, 0f)
+    }
+
+    @Test
+    fun singleUpdatesAreCounted() {
+        index.add(0, 0f, true)
+        index.add(0, 0f, true)
+        index.remove(0, 0f, true)
+        assertTrue(index.hasSingleUpdate)
+        index.remove(0, 0f, true)
+        assertFalse(index.hasSingleUpdate)
+    }
+
+    @Test
+    fun nonPositiveValuesAreNotIndexed() {
+        index.add(0, 0f, false)
+        index.add(-1, -1f, false)
+        assertEquals(Long.MAX_VALUE, index.minInterval)
+        assertEquals(Float.MAX_VALUE, index.minAccuracy, 0f)
+        index.add(2000, 0f, false)
+        assertEquals(2000L, index.minInterval)
+        assertEquals(Float.MAX_VALUE, index.minAccuracy, 0f)
+    }
+
+    @Test
+    fun removingUnknownValuesIsIgnored() {
+        index.add(1000, 50f, false)
+        index.remove(2000, 20f, false)
+        assertEquals(1000L, index.minInterval)
+        assertEquals(50f, index.minAccuracy, 0f)
+    }
+}
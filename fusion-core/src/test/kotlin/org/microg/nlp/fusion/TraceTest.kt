@@ -0,0 +1,112 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.fusion
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+class TraceTest {
+    private fun trace(write: TraceWriter.() -> Unit): ByteArray {
+        val output = ByteArrayOutputStream()
+        TraceWriter(output).use(write)
+        return output.toByteArray()
+    }
+
+    private fun read(bytes: ByteArray): List<TraceEvent> = TraceReader(ByteArrayInputStream(bytes)).use { it.readAll() }
+
+    private fun TraceWriter.writeSample() {
+        beginSession(WALL_TIME, 5000)
+        write(TraceEvent.Kind.UPDATE, "a/.A", 6000, Fix(52.5, 13.4, 20f, WALL_TIME + 900))
+        write(TraceEvent.Kind.REPORT, "b/.B", 7000, Fix(48.1, 11.6, 35f, WALL_TIME + 1900).apply {
+            speed = 3f
+            hasSpeed = true
+            bearing = 90f
+            hasBearing = true
+        })
+        write(TraceEvent.Kind.UPDATE, "a/.A", 8000, null)
+    }
+
+    @Test
+    fun roundTrip() {
+        val events = read(trace { writeSample() })
+        assertEquals(3, events.size)
+
+        val first = events[0]
+        assertEquals(TraceEvent.Kind.UPDATE, first.kind)
+        assertEquals("a/.A", first.component)
+        assertEquals(0, first.session)
+        assertEquals(6000L, first.timestamp)
+        assertEquals(WALL_TIME + 1000, first.wallTime)
+        val fix = first.fix!!
+        assertEquals(52.5, fix.latitude, 0.0)
+        assertEquals(13.4, fix.longitude, 0.0)
+        assertEquals(20f, fix.accuracy, 0f)
+        assertEquals(WALL_TIME + 900, fix.time)
+        assertFalse(fix.hasSpeed)
+        assertFalse(fix.hasBearing)
+
+        val second = events[1]
+        assertEquals(TraceEvent.Kind.REPORT, second.kind)
+        assertEquals("b/.B", second.component)
+        assertTrue(second.fix!!.hasSpeed)
+        assertEquals(3f, second.fix!!.speed, 0f)
+        assertTrue(second.fix!!.hasBearing)
+        assertEquals(90f, second.fix!!.bearing, 0f)
+
+        assertEquals("a/.A", events[2].component)
+        assertNull(events[2].fix)
+    }
+
+    @Test
+    fun sessionsAreNumbered() {
+        val bytes = trace { writeSample() } + trace {
+            beginSession(WALL_TIME + 60000, 100)
+            write(TraceEvent.Kind.UPDATE, "b/.B", 200, null)
+        }
+        val events = read(bytes)
+        assertEquals(4, events.size)
+        assertEquals(1, events[3].session)
+        assertEquals("b/.B", events[3].component)
+        assertEquals(WALL_TIME + 60100, events[3].wallTime)
+    }
+
+    @Test
+    fun truncatedRecordEndsTrace() {
+        val bytes = trace { writeSample() }
+        // Cut into the last record, which is 12 bytes without location
+        val events = read(bytes.copyOf(bytes.size - 5))
+        assertEquals(2, events.size)
+        assertEquals("b/.B", events[1].component)
+        assertNotNull(events[1].fix)
+    }
+
+    @Test
+    fun truncatedLocationEndsTrace() {
+        val bytes = trace {
+            beginSession(WALL_TIME, 5000)
+            write(TraceEvent.Kind.UPDATE, "a/.A", 6000, Fix(52.5, 13.4, 20f, WALL_TIME))
+        }
+        assertTrue(read(bytes.copyOf(bytes.size - 1)).isEmpty())
+        assertEquals(1, read(bytes).size)
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsOtherFiles() {
+        read("not a trace".toByteArray())
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun requiresSession() {
+        trace { write(TraceEvent.Kind.UPDATE, "a/.A", 0, null) }
+    }
+
+    companion object {
+        private const val WALL_TIME = 1_600_000_000_000L
+    }
+}
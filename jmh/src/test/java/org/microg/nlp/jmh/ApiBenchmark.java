@@ -0,0 +1,74 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.jmh;
+
+import android.location.Location;
+import android.os.Bundle;
+
+import org.microg.nlp.api.LocationHelper;
+import org.microg.nlp.api.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers of the backend API that backends call for every scan.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiBenchmark {
+    @State(Scope.Thread)
+    public static class Locations {
+        @Param({"1", "10", "50"})
+        public int count;
+
+        public final List<Location> values = new ArrayList<>();
+
+        @Setup
+        public void setup() {
+            Random random = new Random(42);
+            values.clear();
+            for (int i = 0; i < count; i++) {
+                Location location = LocationHelper.create("benchmark", 52.52 + random.nextGaussian() * 0.001,
+                        13.405 + random.nextGaussian() * 0.001, 20 + random.nextInt(200));
+                if (random.nextBoolean()) location.setAltitude(30 + random.nextInt(20));
+                values.add(location);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Mac {
+        @Param({"01:23:45:ab:cd:ef", "01-23-45-AB-CD-EF", "012345abcdef"})
+        public String value;
+    }
+
+    @Benchmark
+    public Location weightedAverage(Locations locations) {
+        return LocationHelper.weightedAverage("benchmark", locations.values, LocationHelper.LocationBalance.BALANCED, new Bundle());
+    }
+
+    @Benchmark
+    public String wellFormedMac(Mac mac) {
+        return Utils.wellFormedMac(mac.value);
+    }
+}
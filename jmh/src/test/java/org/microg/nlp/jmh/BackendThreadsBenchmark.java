@@ -0,0 +1,135 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.jmh;
+
+import org.microg.nlp.service.SerialDispatcher;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads and heap needed to bind backends, with one lane per backend of a shared {@link SerialDispatcher} compared
+ * to the former thread per backend.
+ * <p>
+ * The former design ran every backend connection on a Looper thread of its own. A Looper needs the native message
+ * queue of a device, so it is modelled by a single thread executor per backend, which also keeps one thread and one
+ * queue per backend alive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BackendThreadsBenchmark {
+    @Param({"1", "4", "16", "64"})
+    public int backends;
+
+    @Param({"dispatcher", "looper"})
+    public String design;
+
+    private SerialDispatcher dispatcher;
+    private final List<SerialDispatcher.Lane> lanes = new ArrayList<>();
+    private final List<ExecutorService> loopers = new ArrayList<>();
+    private long baselineHeap;
+
+    /**
+     * Resources in use once all backends are bound, reported next to the time it took to bind them.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Resources {
+        /**
+         * Threads of the dispatcher, {@link SerialDispatcher#getThreads()}.
+         */
+        public long dispatcherThreads;
+        /**
+         * Threads alive in the process.
+         */
+        public long liveThreads;
+        /**
+         * Heap in use, relative to before binding.
+         */
+        public long heapBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            dispatcherThreads = 0;
+            liveThreads = 0;
+            heapBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        dispatcher = new SerialDispatcher("benchmark", Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Setup(Level.Iteration)
+    public void collect() {
+        System.gc();
+        baselineHeap = usedHeap();
+    }
+
+    @TearDown(Level.Iteration)
+    public void unbind() throws InterruptedException {
+        for (SerialDispatcher.Lane lane : lanes) {
+            lane.close();
+        }
+        lanes.clear();
+        for (ExecutorService looper : loopers) {
+            looper.shutdown();
+            looper.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        loopers.clear();
+    }
+
+    /**
+     * Binds all backends and runs one call on each of them, like opening the connection.
+     */
+    @Benchmark
+    public void bind(Resources resources) throws InterruptedException {
+        CountDownLatch opened = new CountDownLatch(backends);
+        for (int i = 0; i < backends; i++) {
+            if ("looper".equals(design)) {
+                ExecutorService looper = Executors.newSingleThreadExecutor();
+                loopers.add(looper);
+                looper.execute(opened::countDown);
+            } else {
+                SerialDispatcher.Lane lane = dispatcher.newLane();
+                lanes.add(lane);
+                lane.execute(opened::countDown);
+            }
+        }
+        opened.await();
+        resources.dispatcherThreads = dispatcher.getThreads();
+        resources.liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        resources.heapBytes = usedHeap() - baselineHeap;
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
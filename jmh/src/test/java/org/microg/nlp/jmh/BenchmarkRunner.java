@@ -0,0 +1,35 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.jmh;
+
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks of this module, not a test.
+ * <p>
+ * Started by the {@code jmh} task as unit test, so the benchmarks run against the classes of the other modules as
+ * built for the service. Forked benchmark JVMs inherit the unit test classpath.
+ */
+public class BenchmarkRunner {
+    @Test
+    public void run() throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(System.getProperty("jmh.include", "org\\.microg\\.nlp\\.jmh\\..*Benchmark"));
+        String results = System.getProperty("jmh.results");
+        if (results != null) {
+            new File(results).getParentFile().mkdirs();
+            options.resultFormat(ResultFormatType.JSON).result(results);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.jmh;
+
+import org.microg.nlp.fusion.Fix;
+import org.microg.nlp.fusion.FixComparator;
+import org.microg.nlp.fusion.FusionPipeline;
+import org.microg.nlp.fusion.KalmanLocationSmoother;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting and fusion of backend results through the {@link FusionPipeline} LocationFuser runs for every reported
+ * location.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FusionBenchmark {
+    @Param({"1", "5", "10", "25", "50"})
+    public int backends;
+
+    private final List<Fix> results = new ArrayList<>();
+    private final ArrayList<Fix> scratch = new ArrayList<>();
+    private final FusionPipeline pipeline = new FusionPipeline(new KalmanLocationSmoother(KalmanLocationSmoother.DEFAULT_PROCESS_NOISE), (location, reason) -> {
+    });
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        results.clear();
+        for (int i = 0; i < backends; i++) {
+            double latitude = 52.52 + random.nextGaussian() * 0.001;
+            double longitude = 13.405 + random.nextGaussian() * 0.001;
+            float accuracy = 20 + random.nextInt(2000);
+            results.add(new Fix(latitude, longitude, accuracy, now - random.nextInt(60000), null));
+        }
+        pipeline.reset();
+        pipeline.report(new Fix(52.52, 13.405, 50f, now - 10000, null));
+    }
+
+    @Benchmark
+    public List<Fix> sort() {
+        scratch.clear();
+        scratch.addAll(results);
+        scratch.sort(FixComparator.INSTANCE);
+        return scratch;
+    }
+
+    /**
+     * Filters, sorts and fuses the results. The fused fix is not reported, so every invocation filters against the same
+     * previous location.
+     */
+    @Benchmark
+    public Fix merge() {
+        scratch.clear();
+        scratch.addAll(results);
+        return pipeline.fuse(scratch, fix -> 1.0);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.jmh;
+
+import org.microg.nlp.fusion.RequestIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recomputing the merged interval after a request changed, once with the {@link RequestIndex} used by the service and
+ * once with a scan over all requests as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestIntervalBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int requests;
+
+    private long[] intervals;
+    private float[] accuracies;
+    private final RequestIndex index = new RequestIndex();
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        intervals = new long[requests];
+        accuracies = new float[requests];
+        for (int i = 0; i < requests; i++) {
+            intervals[i] = 2500 + random.nextInt(120) * 5000L;
+            accuracies[i] = 10 + random.nextInt(1000);
+            index.add(intervals[i], accuracies[i], false);
+        }
+    }
+
+    @Benchmark
+    public long index() {
+        int i = next();
+        index.remove(intervals[i], accuracies[i], false);
+        index.add(intervals[i], accuracies[i], false);
+        return index.getMinInterval();
+    }
+
+    @Benchmark
+    public long linearScan() {
+        next();
+        long interval = Long.MAX_VALUE;
+        for (long requestInterval : intervals) {
+            if (requestInterval > 0 && requestInterval < interval) interval = requestInterval;
+        }
+        return interval;
+    }
+
+    private int next() {
+        int i = next;
+        next = (next + 1) % requests;
+        return i;
+    }
+}
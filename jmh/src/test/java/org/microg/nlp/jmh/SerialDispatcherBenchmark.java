@@ -0,0 +1,65 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.jmh;
+
+import org.microg.nlp.service.SerialDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatching short backend calls to one lane per backend of a shared {@link SerialDispatcher}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialDispatcherBenchmark {
+    private static final int CALLS_PER_LANE = 16;
+
+    @Param({"1", "4", "16", "64"})
+    public int backends;
+
+    private SerialDispatcher dispatcher;
+    private Executor[] lanes;
+
+    @Setup
+    public void setup() {
+        dispatcher = new SerialDispatcher("benchmark", Math.max(4, Runtime.getRuntime().availableProcessors()));
+        lanes = new Executor[backends];
+        for (int i = 0; i < backends; i++) {
+            lanes[i] = dispatcher.newLane();
+        }
+    }
+
+    /**
+     * Submits {@value CALLS_PER_LANE} calls to every lane and waits for all of them.
+     */
+    @Benchmark
+    public void dispatch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(backends * CALLS_PER_LANE);
+        for (int call = 0; call < CALLS_PER_LANE; call++) {
+            for (Executor lane : lanes) {
+                lane.execute(done::countDown);
+            }
+        }
+        done.await();
+    }
+}
@@ -44,6 +44,10 @@ class LocationProvider(private val context: Context, private val lifecycle: Life
                 reportLocation(reportableLocation)
             }
         }
+
+        override fun onLocations(statusCode: Int, locations: List<Location>?) {
+            locations?.forEach { onLocation(statusCode, it) }
+        }
     }
     private var opPackageName: String? = null
     private var opPackageNames: Set<String> = emptySet()
@@ -18,6 +18,35 @@ public class LocationRequest extends AutoSafeParcelable {
     public int numUpdates;
     @Field(4)
     public String id;
+    /**
+     * Accuracy in meters the requester would like to get, 0 if any accuracy is fine.
+     */
+    @Field(5)
+    public float accuracy;
+    /**
+     * Maximum time in milliseconds a location may be held back to deliver it together with later locations through
+     * {@link ILocationListener#onLocations}, 0 to deliver every location on its own.
+     */
+    @Field(6)
+    public long maxWaitTime;
+    /**
+     * Only receive locations that were computed for other requests, without causing any location updates.
+     */
+    @Field(7)
+    public boolean passive;
+    /**
+     * Minimum distance in meters from the last delivered location a location must have to be delivered, 0 to deliver
+     * all locations. A location less accurate than the last delivered one must move further by the accuracy it lost.
+     */
+    @Field(8)
+    public float minDisplacementMeters;
+    /**
+     * Accuracy improvement in meters over the last delivered location that causes a location to be delivered even if
+     * it is closer than {@link #minDisplacementMeters}, 0 to ignore accuracy improvements. Without
+     * {@link #minDisplacementMeters}, only locations improving the accuracy by this much are delivered.
+     */
+    @Field(9)
+    public float minAccuracyImprovement;
 
     private LocationRequest() {
     }
@@ -13,10 +13,14 @@ import android.content.ServiceConnection
 import android.content.pm.PackageInfo
 import android.content.pm.PackageManager
 import android.os.IBinder
+import android.os.RemoteException
 import android.util.Log
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
-import kotlinx.coroutines.CoroutineScope
+import androidx.lifecycle.lifecycleScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 import java.io.PrintWriter
 
 import java.security.MessageDigest
@@ -27,7 +31,18 @@ fun <T> Array<out T>?.isNotNullOrEmpty(): Boolean {
 }
 
 abstract class AbstractBackendHelper(private val TAG: String, private val context: Context, private val lifecycle: Lifecycle, val serviceIntent: Intent, val signatureDigest: String?) : ServiceConnection, LifecycleOwner {
-    private var bound: Boolean = false
+    var bound: Boolean = false
+        private set
+
+    /**
+     * Whether the service is bound or the system accepted binding to it, so it is expected to connect.
+     */
+    val binding: Boolean
+        get() = bound || bindPending
+    private var bindPending = false
+    val breaker = CircuitBreaker()
+    private var wanted = false
+    private var rebind: Job? = null
 
     protected abstract suspend fun close()
 
@@ -35,18 +50,70 @@ abstract class AbstractBackendHelper(private val TAG: String, private val contex
 
     protected abstract fun hasBackend(): Boolean
 
+    /**
+     * Called after the binding to the service was removed.
+     */
+    protected open fun onUnbound() {}
+
+    /**
+     * Checks that a backend reconnected after failures works, before it is put back into rotation.
+     */
+    protected abstract suspend fun probe()
+
+    /**
+     * Runs [probe] if the circuit is half-open.
+     *
+     * @return Whether the backend may be used.
+     */
+    protected suspend fun probeIfNeeded(): Boolean {
+        if (breaker.state != CircuitBreaker.State.HALF_OPEN) return true
+        try {
+            probe()
+        } catch (e: Exception) {
+            onFailure(e)
+            return false
+        }
+        Log.d(TAG, "Probe of $serviceIntent succeeded, closing circuit")
+        breaker.onProbeSucceeded()
+        return true
+    }
+
+    /**
+     * Opens the circuit after the backend failed, unbinds from it and schedules a rebind once the backoff elapsed.
+     */
+    protected suspend fun onFailure(e: Exception) {
+        Log.w(TAG, e)
+        breaker.onFailure()
+        disconnect()
+        rebind?.cancel()
+        rebind = lifecycleScope.launch {
+            Log.d(TAG, "Rebinding to $serviceIntent in ${breaker.retryDelay}ms")
+            delay(breaker.retryDelay)
+            if (wanted) bindNow()
+        }
+    }
+
     override fun onServiceConnected(name: ComponentName, service: IBinder) {
         bound = true
+        bindPending = false
         Log.d(TAG, "Bound to: $name")
     }
 
     override fun onServiceDisconnected(name: ComponentName) {
-        bound = false
-        Log.d(TAG, "Unbound from: $name")
+        Log.d(TAG, "Disconnected from: $name")
+        // The binding stays registered and the system would restart a crashing backend right away, let the breaker
+        // decide when to try again.
+        lifecycleScope.launch { onFailure(RemoteException("$name disconnected")) }
     }
 
     suspend fun unbind() {
-        if (bound) {
+        wanted = false
+        rebind?.cancel()
+        disconnect()
+    }
+
+    private suspend fun disconnect() {
+        if (binding) {
             if (hasBackend()) {
                 try {
                     close()
@@ -54,12 +121,21 @@ abstract class AbstractBackendHelper(private val TAG: String, private val contex
                     Log.w(TAG, e)
                 }
             }
-            unbindNow()
+            unbindFromService()
         }
     }
 
     fun unbindNow() {
-        if (bound) {
+        wanted = false
+        rebind?.cancel()
+        unbindFromService()
+    }
+
+    /**
+     * Removes the binding, also if the service did not connect yet, so a pending binding does not leak.
+     */
+    private fun unbindFromService() {
+        if (binding) {
             try {
                 Log.d(TAG, "Unbinding from: $serviceIntent")
                 context.unbindService(this)
@@ -68,11 +144,22 @@ abstract class AbstractBackendHelper(private val TAG: String, private val contex
             }
 
             bound = false
+            bindPending = false
+            onUnbound()
         }
     }
 
     fun bind() {
-        if (!bound) {
+        wanted = true
+        bindNow()
+    }
+
+    private fun bindNow() {
+        if (!binding) {
+            if (!breaker.allowBind()) {
+                Log.d(TAG, "Circuit of $serviceIntent is open, not binding for ${breaker.retryDelay}ms")
+                return
+            }
             Log.d(TAG, "Binding to: $serviceIntent sig: $signatureDigest")
             if (serviceIntent.getPackage() == null) {
                 Log.w(TAG, "Intent is not properly resolved, can't verify signature. Aborting.")
@@ -84,7 +171,8 @@ abstract class AbstractBackendHelper(private val TAG: String, private val contex
                 return
             }
             try {
-                context.bindService(serviceIntent, this, Context.BIND_AUTO_CREATE)
+                bindPending = context.bindService(serviceIntent, this, Context.BIND_AUTO_CREATE)
+                if (!bindPending) Log.w(TAG, "Can't bind to $serviceIntent")
             } catch (e: Exception) {
                 Log.w(TAG, e)
             }
@@ -93,7 +181,8 @@ abstract class AbstractBackendHelper(private val TAG: String, private val contex
     }
 
     open fun dump(writer: PrintWriter?) {
-        writer?.println("  ${javaClass.simpleName} $serviceIntent bound=$bound")
+        writer?.println("  ${javaClass.simpleName} $serviceIntent bound=$bound pending=$bindPending")
+        breaker.dump(writer)
     }
 
     companion object {
@@ -8,127 +8,87 @@ package org.microg.nlp.service
 import android.content.Intent
 import android.location.Location
 import android.os.*
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
 import org.microg.nlp.api.LocationBackend
 import org.microg.nlp.api.LocationCallback
-import java.lang.Exception
-import java.util.concurrent.CountDownLatch
-import kotlin.coroutines.resume
-import kotlin.coroutines.suspendCoroutine
-
-class AsyncLocationBackend(binder: IBinder, name: String = "location-backend-thread") : Thread(name) {
-    private lateinit var looper: Looper
-    private lateinit var handler: Handler
-    private val mutex = Mutex(true)
+import java.util.concurrent.TimeoutException
+
+class AsyncLocationBackend(binder: IBinder, private val name: String = "location-backend") {
+    private val executor = SerialDispatcher.backends.newLane(name)
     private val backend = LocationBackend.Stub.asInterface(binder)
 
-    override fun run() {
-        Looper.prepare()
-        looper = Looper.myLooper()!!
-        handler = Handler(looper)
-        handler.post {
-            mutex.unlock()
+    /**
+     * Number of calls that did not finish before their deadline.
+     */
+    @Volatile
+    var timeouts: Long = 0
+        private set
+
+    @Volatile
+    private var consecutiveTimeouts: Int = 0
+
+    /**
+     * Whether the backend repeatedly failed to answer in time. Calls to a degraded backend are still attempted.
+     */
+    val degraded: Boolean
+        get() = consecutiveTimeouts >= DEGRADED_AFTER_TIMEOUTS
+
+    /**
+     * Runs [action] on the backend's lane of the shared dispatcher, see [SerialDispatcher.Lane.call].
+     *
+     * @throws TimeoutException if the backend did not answer within [timeout] milliseconds.
+     */
+    private suspend fun <T> call(timeout: Long, action: () -> T): T {
+        val result = try {
+            executor.call(timeout, action)
+        } catch (e: TimeoutException) {
+            timeouts++
+            consecutiveTimeouts++
+            throw e
         }
-        Looper.loop()
+        consecutiveTimeouts = 0
+        return result
     }
 
-    suspend fun updateWithOptions(options: Bundle?): Location = mutex.withLock {
-        suspendCoroutine {
-            handler.post {
-                val result = try {
-                    Result.success(backend.updateWithOptions(options))
-                } catch (e: Exception) {
-                    Result.failure<Location>(e)
-                }
-                it.resumeWith(result)
-            }
-        }
+    suspend fun updateWithOptions(options: Bundle?, timeout: Long = UPDATE_TIMEOUT): Location? = call(timeout) {
+        backend.updateWithOptions(options)
     }
 
-    suspend fun getSettingsIntent(): Intent = mutex.withLock {
-        suspendCoroutine {
-            handler.post {
-                val result = try {
-                    Result.success(backend.settingsIntent)
-                } catch (e: Exception) {
-                    Result.failure<Intent>(e)
-                }
-                it.resumeWith(result)
-            }
-        }
+    suspend fun getSettingsIntent(timeout: Long = INTENT_TIMEOUT): Intent = call(timeout) {
+        backend.settingsIntent
     }
 
-    suspend fun getInitIntent(): Intent = mutex.withLock {
-        suspendCoroutine {
-            handler.post {
-                val result = try {
-                    Result.success(backend.initIntent)
-                } catch (e: Exception) {
-                    Result.failure<Intent>(e)
-                }
-                it.resumeWith(result)
-            }
-        }
+    suspend fun getInitIntent(timeout: Long = INTENT_TIMEOUT): Intent = call(timeout) {
+        backend.initIntent
     }
 
-    suspend fun open(callback: LocationCallback) {
-        start()
-        mutex.withLock {
-            suspendCoroutine<Unit> {
-                handler.post {
-                    val result = try {
-                        backend.open(callback)
-                        Result.success(Unit)
-                    } catch (e: Exception) {
-                        Result.failure<Unit>(e)
-                    }
-                    it.resumeWith(result)
-                }
-            }
-        }
+    suspend fun open(callback: LocationCallback, timeout: Long = OPEN_TIMEOUT) = call(timeout) {
+        backend.open(callback)
     }
 
-    suspend fun getAboutIntent(): Intent = mutex.withLock {
-        suspendCoroutine {
-            handler.post {
-                val result = try {
-                    Result.success(backend.aboutIntent)
-                } catch (e: Exception) {
-                    Result.failure<Intent>(e)
-                }
-                it.resumeWith(result)
-            }
-        }
+    suspend fun getAboutIntent(timeout: Long = INTENT_TIMEOUT): Intent = call(timeout) {
+        backend.aboutIntent
     }
 
-    suspend fun update(): Location = mutex.withLock {
-        suspendCoroutine {
-            handler.post {
-                val result = try {
-                    Result.success(backend.update())
-                } catch (e: Exception) {
-                    Result.failure<Location>(e)
-                }
-                it.resumeWith(result)
-            }
-        }
+    suspend fun update(timeout: Long = UPDATE_TIMEOUT): Location? = call(timeout) {
+        backend.update()
     }
 
-    suspend fun close() {
-        mutex.withLock {
-            suspendCoroutine<Unit> {
-                handler.post {
-                    val result = try {
-                        backend.close()
-                        Result.success(Unit)
-                    } catch (e: Exception) {
-                        Result.failure<Unit>(e)
-                    }
-                    it.resumeWith(result)
-                }
-            }
-        }
-        looper.quit()
+    suspend fun close(timeout: Long = CLOSE_TIMEOUT) = call(timeout) {
+        backend.close()
+    }
+
+    /**
+     * Releases the lane of this backend on the shared dispatcher.
+     */
+    fun release() {
+        executor.close()
+    }
+
+    companion object {
+        const val UPDATE_TIMEOUT = 20000L
+        const val OPEN_TIMEOUT = 10000L
+        const val CLOSE_TIMEOUT = 5000L
+        const val INTENT_TIMEOUT = 5000L
+        const val DEGRADED_AFTER_TIMEOUTS = 3
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.location.Location
+import org.microg.nlp.fusion.LocationOutlierFilter
+import org.microg.nlp.fusion.MetricsRegistry
+import java.io.PrintWriter
+import kotlin.math.max
+
+/**
+ * Streaming statistics about a single location backend.
+ *
+ * Latencies are recorded in a [MetricsRegistry.Histogram] that is halved regularly, result rate and error are
+ * exponentially weighted moving averages. Memory use does not grow with the number of calls.
+ *
+ * Totals and the cumulative latency distribution are also exported to [metrics], prefixed with `backend.<name>.`.
+ * These are shared by all fusers of the process and survive a reset, so decisions only use the samples of this
+ * instance.
+ */
+class BackendStatistics(name: String, metrics: MetricsRegistry = MetricsRegistry.location) {
+    private val recentLatency = MetricsRegistry.Histogram()
+
+    private val callsCounter = metrics.counter("backend.$name.calls")
+    private val errorsCounter = metrics.counter("backend.$name.errors")
+    private val resultsCounter = metrics.counter("backend.$name.results")
+    private val rejectedBySpeedCounter = metrics.counter("backend.$name.rejected_speed")
+    private val rejectedByConsensusCounter = metrics.counter("backend.$name.rejected_consensus")
+    private val latencyHistogram = metrics.histogram("backend.$name.update_latency_ms")
+
+    val calls: Long
+        get() = callsCounter.count
+    val errors: Long
+        get() = errorsCounter.count
+    val rejectedBySpeed: Long
+        get() = rejectedBySpeedCounter.count
+    val rejectedByConsensus: Long
+        get() = rejectedByConsensusCounter.count
+    private var updateSamples: Long = 0
+    private var fusedSamples: Long = 0
+
+    /**
+     * Moving average of the fraction of calls that returned a location.
+     */
+    var resultRate: Double = 1.0
+        private set
+
+    /**
+     * Moving average of the distance to the fused location in meters.
+     */
+    var error: Double = 0.0
+        private set
+
+    /**
+     * Moving average of the distance to the fused location relative to the accuracy reported by the backend.
+     */
+    var normalizedError: Double = 1.0
+        private set
+
+    @Synchronized
+    fun onUpdate(latency: Long, hasResult: Boolean, failed: Boolean = false) {
+        callsCounter.increment()
+        updateSamples++
+        if (failed) errorsCounter.increment()
+        if (hasResult) resultsCounter.increment()
+        latencyHistogram.record(latency)
+        recentLatency.record(latency)
+        if (recentLatency.count >= LATENCY_DECAY_SAMPLES) recentLatency.decay()
+        resultRate += ALPHA * ((if (hasResult) 1.0 else 0.0) - resultRate)
+    }
+
+    @Synchronized
+    fun onFused(location: Location, fused: Location) {
+        val distance = location.distanceTo(fused).toDouble()
+        fusedSamples++
+        error += ALPHA * (distance - error)
+        normalizedError += ALPHA * (distance / max(1.0, location.accuracy.toDouble()) - normalizedError)
+    }
+
+    @Synchronized
+    fun onRejected(reason: LocationOutlierFilter.Reason) {
+        when (reason) {
+            LocationOutlierFilter.Reason.SPEED -> rejectedBySpeedCounter.increment()
+            LocationOutlierFilter.Reason.CONSENSUS -> rejectedByConsensusCounter.increment()
+        }
+    }
+
+    /**
+     * @return The latency in milliseconds below which [percentile] of the recent calls finished.
+     */
+    fun latencyPercentile(percentile: Double): Long = recentLatency.percentile(percentile)
+
+    /**
+     * Factor applied to the fusion weight of this backend's results.
+     *
+     * Backends that are regularly further from the fused location than their reported accuracy suggests are weighted
+     * down, as if their accuracy was worse by that ratio.
+     */
+    val weight: Double
+        @Synchronized get() {
+            if (fusedSamples < MIN_SAMPLES) return 1.0
+            val ratio = max(1.0, normalizedError)
+            return max(MIN_WEIGHT, 1.0 / (ratio * ratio))
+        }
+
+    /**
+     * Higher is better.
+     */
+    val score: Double
+        get() = resultRate * weight / max(1.0, latencyPercentile(0.9) / 1000.0)
+
+    /**
+     * Whether this backend rarely returns useful results in time.
+     */
+    @Synchronized
+    fun isPoor(deadline: Long): Boolean {
+        if (updateSamples < MIN_SAMPLES) return false
+        return resultRate < POOR_RESULT_RATE || weight <= POOR_WEIGHT || latencyPercentile(0.9) > deadline
+    }
+
+    fun dump(writer: PrintWriter?) {
+        writer?.println("    statistics: calls=$calls ($updateSamples since reset) errors=$errors results=${(resultRate * 100).toInt()}% " +
+                "latency p50=${latencyPercentile(0.5)}ms p90=${latencyPercentile(0.9)}ms p99=${latencyPercentile(0.99)}ms " +
+                "error=${error.toInt()}m (${String.format("%.2f", normalizedError)}x accuracy) weight=${String.format("%.2f", weight)} " +
+                "rejected speed=$rejectedBySpeed consensus=$rejectedByConsensus")
+    }
+
+    companion object {
+        private const val ALPHA = 0.1
+        private const val MIN_SAMPLES = 10
+        private const val MIN_WEIGHT = 0.01
+        private const val POOR_WEIGHT = 1.0 / 16
+        private const val POOR_RESULT_RATE = 0.1
+        private const val LATENCY_DECAY_SAMPLES = 1024L
+    }
+}
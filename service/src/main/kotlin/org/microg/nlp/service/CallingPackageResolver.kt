@@ -0,0 +1,122 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.app.ActivityManager
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.Intent.*
+import android.content.IntentFilter
+import android.os.SystemClock
+import org.microg.nlp.fusion.MetricsRegistry
+import java.io.PrintWriter
+
+/**
+ * Resolves the packages of calling processes and uids, backed by a bounded LRU cache.
+ *
+ * Entries are dropped when a package of their uid changes, when the process is known to be gone and after [TTL]
+ * milliseconds. Only the shared instance of [getInstance] listens for package changes.
+ */
+class CallingPackageResolver internal constructor(private val context: Context) {
+    private class Entry(val processPackages: Array<String>?, val uidPackages: Array<String>?, val expires: Long)
+
+    private val entries = object : LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Entry>?): Boolean = size > MAX_ENTRIES
+    }
+    private val hits = MetricsRegistry.location.counter("packages.hits")
+    private val misses = MetricsRegistry.location.counter("packages.misses")
+
+    private val receiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context?, intent: Intent?) {
+            val uid = intent?.getIntExtra(EXTRA_UID, -1) ?: -1
+            if (uid < 0) invalidate() else invalidateUid(uid)
+        }
+    }
+
+    /**
+     * @return The package of the process [pid] picked by [select], or if that doesn't yield a package, the package of
+     * [uid] picked by [select].
+     */
+    fun getCallingPackage(pid: Int, uid: Int, select: (Array<String>) -> String? = { it.firstOrNull() }): String? {
+        val entry = resolve(pid, uid)
+        entry.processPackages?.let(select)?.let { return it }
+        return entry.uidPackages?.let(select)
+    }
+
+    /**
+     * Cached version of [android.content.pm.PackageManager.getPackagesForUid].
+     */
+    fun getPackagesForUid(pid: Int, uid: Int): Array<String>? = resolve(pid, uid).uidPackages
+
+    private fun resolve(pid: Int, uid: Int): Entry {
+        val key = (uid.toLong() shl 32) or (pid.toLong() and 0xffffffffL)
+        val now = SystemClock.elapsedRealtime()
+        synchronized(entries) {
+            val entry = entries[key]
+            if (entry != null && entry.expires > now) {
+                hits.increment()
+                return entry
+            }
+            misses.increment()
+        }
+        val manager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
+        val processPackages = if (manager != null && pid > 0) manager.runningAppProcesses?.find { it.pid == pid }?.pkgList else null
+        val entry = Entry(processPackages, context.packageManager.getPackagesForUid(uid), now + TTL)
+        synchronized(entries) {
+            entries[key] = entry
+        }
+        return entry
+    }
+
+    fun invalidate() = synchronized(entries) {
+        entries.clear()
+    }
+
+    fun invalidateUid(uid: Int) = synchronized(entries) {
+        entries.keys.removeAll { (it shr 32).toInt() == uid }
+    }
+
+    /**
+     * Drops the entries of a process that is known to be gone.
+     */
+    fun invalidatePid(pid: Int) = synchronized(entries) {
+        entries.keys.removeAll { it.toInt() == pid }
+    }
+
+    fun dump(writer: PrintWriter?) = synchronized(entries) {
+        writer?.println("calling package cache: entries=${entries.size} hits=${hits.count} misses=${misses.count}")
+    }
+
+    companion object {
+        /**
+         * Time in milliseconds a resolved package is cached.
+         */
+        const val TTL = 60000L
+        private const val MAX_ENTRIES = 64
+
+        @Volatile
+        private var instance: CallingPackageResolver? = null
+
+        /**
+         * @return The resolver shared by all services of this process.
+         */
+        fun getInstance(context: Context): CallingPackageResolver = instance ?: synchronized(this) {
+            instance ?: CallingPackageResolver(context.applicationContext ?: context).also {
+                it.context.registerReceiver(it.receiver, IntentFilter().apply {
+                    addAction(ACTION_PACKAGE_ADDED)
+                    addAction(ACTION_PACKAGE_CHANGED)
+                    addAction(ACTION_PACKAGE_REMOVED)
+                    addAction(ACTION_PACKAGE_REPLACED)
+                    addAction(ACTION_PACKAGE_RESTARTED)
+                    addDataScheme("package")
+                })
+                it.context.registerReceiver(it.receiver, IntentFilter(ACTION_UID_REMOVED))
+                instance = it
+            }
+        }
+    }
+}
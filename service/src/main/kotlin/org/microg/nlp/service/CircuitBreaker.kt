@@ -0,0 +1,93 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.os.SystemClock
+import java.io.PrintWriter
+import kotlin.math.min
+
+/**
+ * Circuit breaker guarding the connection to a single backend.
+ *
+ * A failure opens the circuit. While open, the backend must not be bound. Once the backoff elapsed, the circuit becomes
+ * half-open: the backend may be bound again, but only re-enters rotation after a successful probe. The backoff doubles
+ * with every failure and only starts from [initialBackoff] again after the backend worked for [stablePeriod].
+ */
+class CircuitBreaker(private val initialBackoff: Long = INITIAL_BACKOFF, private val maxBackoff: Long = MAX_BACKOFF, private val stablePeriod: Long = STABLE_PERIOD) {
+    enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    var state: State = State.CLOSED
+        @Synchronized get
+        private set
+    var failures: Long = 0
+        @Synchronized get
+        private set
+    private var consecutiveFailures = 0
+    private var closedSince: Long = 0
+    private var retryAt: Long = 0
+
+    /**
+     * Whether the backend is in rotation.
+     */
+    val isClosed: Boolean
+        get() = state == State.CLOSED
+
+    /**
+     * Time in milliseconds until the backend may be bound again.
+     */
+    val retryDelay: Long
+        @Synchronized get() = if (state == State.OPEN) (retryAt - SystemClock.elapsedRealtime()).coerceAtLeast(0) else 0
+
+    /**
+     * @return Whether the backend may be bound now. Switches an open circuit to half-open once its backoff elapsed.
+     */
+    @Synchronized
+    fun allowBind(): Boolean {
+        if (state == State.OPEN) {
+            if (SystemClock.elapsedRealtime() < retryAt) return false
+            state = State.HALF_OPEN
+        }
+        return true
+    }
+
+    @Synchronized
+    fun onFailure() {
+        val now = SystemClock.elapsedRealtime()
+        if (state == State.CLOSED && closedSince > 0 && now - closedSince >= stablePeriod) consecutiveFailures = 0
+        failures++
+        consecutiveFailures++
+        state = State.OPEN
+        retryAt = now + backoff(consecutiveFailures)
+    }
+
+    /**
+     * Closes a half-open circuit after a successful probe.
+     */
+    @Synchronized
+    fun onProbeSucceeded() {
+        if (state != State.HALF_OPEN) return
+        state = State.CLOSED
+        closedSince = SystemClock.elapsedRealtime()
+    }
+
+    private fun backoff(failures: Int): Long {
+        val shift = (failures - 1).coerceIn(0, 30)
+        return min(initialBackoff shl shift, maxBackoff)
+    }
+
+    @Synchronized
+    override fun toString(): String = "state=$state failures=$failures consecutive=$consecutiveFailures retry in ${retryDelay}ms"
+
+    fun dump(writer: PrintWriter?) {
+        writer?.println("    circuit breaker: $this")
+    }
+
+    companion object {
+        const val INITIAL_BACKOFF = 5000L
+        const val MAX_BACKOFF = 30 * 60 * 1000L
+        const val STABLE_PERIOD = 10 * 60 * 1000L
+    }
+}
@@ -122,30 +122,28 @@ class GeocodeBackendHelper(context: Context, lifecycle: Lifecycle, serviceIntent
 
     suspend fun getFromLocation(latitude: Double, longitude: Double, maxResults: Int,
                                 locale: String): List<Address> {
-        if (backend == null) {
+        if (backend == null || !breaker.isClosed) {
             Log.d(TAG, "Not (yet) bound.")
             return emptyList()
         }
         try {
             return backend!!.getFromLocation(latitude, longitude, maxResults, locale)
         } catch (e: Exception) {
-            Log.w(TAG, e)
-            unbind()
+            onFailure(e)
             return emptyList()
         }
     }
 
     fun getFromLocationSync(latitude: Double, longitude: Double, maxResults: Int,
                             locale: String): List<Address> {
-        if (backend == null) {
+        if (backend == null || !breaker.isClosed) {
             Log.d(TAG, "Not (yet) bound.")
             return emptyList()
         }
         try {
             return backend!!.getFromLocationSync(latitude, longitude, maxResults, locale)
         } catch (e: Exception) {
-            Log.w(TAG, e)
-            lifecycleScope.launch { unbind() }
+            lifecycleScope.launch { onFailure(e) }
             return emptyList()
         }
     }
@@ -154,7 +152,7 @@ class GeocodeBackendHelper(context: Context, lifecycle: Lifecycle, serviceIntent
                                     lowerLeftLatitude: Double, lowerLeftLongitude: Double,
                                     upperRightLatitude: Double, upperRightLongitude: Double,
                                     locale: String): List<Address> {
-        if (backend == null) {
+        if (backend == null || !breaker.isClosed) {
             Log.d(TAG, "Not (yet) bound.")
             return emptyList()
         }
@@ -162,8 +160,7 @@ class GeocodeBackendHelper(context: Context, lifecycle: Lifecycle, serviceIntent
             return backend!!.getFromLocationName(locationName, maxResults, lowerLeftLatitude,
                 lowerLeftLongitude, upperRightLatitude, upperRightLongitude, locale)
         } catch (e: Exception) {
-            Log.w(TAG, e)
-            unbind()
+            onFailure(e)
             return emptyList()
         }
     }
@@ -172,7 +169,7 @@ class GeocodeBackendHelper(context: Context, lifecycle: Lifecycle, serviceIntent
                                 lowerLeftLatitude: Double, lowerLeftLongitude: Double,
                                 upperRightLatitude: Double, upperRightLongitude: Double,
                                 locale: String): List<Address> {
-        if (backend == null) {
+        if (backend == null || !breaker.isClosed) {
             Log.d(TAG, "Not (yet) bound.")
             return emptyList()
         }
@@ -180,30 +177,44 @@ class GeocodeBackendHelper(context: Context, lifecycle: Lifecycle, serviceIntent
             return backend!!.getFromLocationNameSync(locationName, maxResults, lowerLeftLatitude,
                 lowerLeftLongitude, upperRightLatitude, upperRightLongitude, locale)
         } catch (e: Exception) {
-            Log.w(TAG, e)
-            lifecycleScope.launch { unbind() }
+            lifecycleScope.launch { onFailure(e) }
             return emptyList()
         }
     }
 
     override fun onServiceConnected(name: ComponentName, service: IBinder) {
         super.onServiceConnected(name, service)
+        backend?.release()
         backend = AsyncGeocoderBackend(service, name.toShortString() + "-geocoder-backend")
         lifecycleScope.launchWhenStarted {
             try {
                 backend!!.open()
             } catch (e: Exception) {
-                Log.w(TAG, e)
-                unbind()
+                onFailure(e)
+                return@launchWhenStarted
             }
+            probeIfNeeded()
         }
     }
 
     override fun onServiceDisconnected(name: ComponentName) {
         super.onServiceDisconnected(name)
+        backend?.release()
         backend = null
     }
 
+    override fun onUnbound() {
+        backend?.release()
+        backend = null
+    }
+
+    /**
+     * Pings the backend process, geocoder backends have no side-effect free call to probe with.
+     */
+    override suspend fun probe() {
+        if (backend?.ping() != true) throw RemoteException("$serviceIntent did not answer ping")
+    }
+
     @Throws(RemoteException::class)
     public override suspend fun close() {
         backend!!.close()
@@ -5,7 +5,6 @@
 
 package org.microg.nlp.service
 
-import android.app.ActivityManager
 import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
@@ -68,6 +67,8 @@ class GeocodeServiceImpl(private val context: Context, private val lifecycle: Li
         }
     }
     private val fuser = GeocodeFuser(context, lifecycle)
+    private val permissions = PermissionCache.getInstance(context)
+    private val packageResolver = CallingPackageResolver.getInstance(context)
 
     init {
         lifecycleScope.launchWhenStarted {
@@ -79,14 +80,7 @@ class GeocodeServiceImpl(private val context: Context, private val lifecycle: Li
         }
     }
 
-    private fun getCallingPackage(): String? {
-        val manager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
-        val callingPid = getCallingPid()
-        if (manager != null && callingPid > 0) {
-            manager.runningAppProcesses.find { it.pid == callingPid }?.pkgList?.firstOrNull()?.let { return it }
-        }
-        return context.packageManager.getPackagesForUid(getCallingUid())?.firstOrNull()
-    }
+    private fun getCallingPackage(): String? = packageResolver.getCallingPackage(getCallingPid(), getCallingUid())
 
     private fun processOptions(options: Bundle?): Bundle {
         val options = options ?: Bundle()
@@ -95,7 +89,7 @@ class GeocodeServiceImpl(private val context: Context, private val lifecycle: Li
             options.putString("packageName", options.getString("packageName"))
         } else if (context.checkCallingPermission("org.microg.nlp.SERVICE_ADMIN") != PERMISSION_GRANTED) {
             val claimedPackageName = options.getString("packageName")
-            if (context.packageManager.getPackagesForUid(getCallingUid())?.any { it == claimedPackageName } != true) {
+            if (packageResolver.getPackagesForUid(getCallingPid(), getCallingUid())?.any { it == claimedPackageName } != true) {
                 options.putString("packageName", options.getString("packageName"))
             }
         }
@@ -105,7 +99,7 @@ class GeocodeServiceImpl(private val context: Context, private val lifecycle: Li
     }
 
     private fun Bundle.checkPermission(permission: String): Int {
-        return context.checkPermission(permission, getInt("callingPid"), getInt("callingUid"))
+        return permissions.checkPermission(permission, getInt("callingPid"), getInt("callingUid"))
     }
 
     override fun requestGeocode(request: GeocodeRequest?, callback: IAddressesCallback?, options: Bundle?) {
@@ -201,6 +195,9 @@ class GeocodeServiceImpl(private val context: Context, private val lifecycle: Li
 
     fun dump(writer: PrintWriter?) {
         fuser.dump(writer)
+        permissions.dump(writer)
+        packageResolver.dump(writer)
+        SerialDispatcher.backends.dump(writer)
     }
 
     fun destroy() {
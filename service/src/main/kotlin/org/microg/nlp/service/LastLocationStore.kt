@@ -0,0 +1,170 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.location.Location
+import android.location.LocationManager
+import android.os.Build
+import android.os.SystemClock
+import android.util.Log
+import java.io.File
+import java.io.PrintWriter
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+private const val TAG = "LastLocationStore"
+
+/**
+ * Persists the last fused location and the last location of each backend in a small memory-mapped file.
+ *
+ * The file holds two fixed-size slots, each with a sequence number and a CRC. Writes always go to the slot not holding
+ * the newest record, so a write torn by a crash leaves the previous record intact.
+ */
+class LastLocationStore(private val file: File) {
+    class Snapshot(val fused: Location?, val backends: Map<Long, Location>)
+
+    private var buffer: MappedByteBuffer? = null
+    private var sequence: Long = 0
+    private var lastForce: Long = 0
+    private var writes: Long = 0
+
+    /**
+     * Opens the file and reads the newest valid record.
+     */
+    @Synchronized
+    fun load(): Snapshot? {
+        val buffer = try {
+            RandomAccessFile(file, "rw").use { it.channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE.toLong()) }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to open $file", e)
+            return null
+        }
+        this.buffer = buffer
+        var newest: Snapshot? = null
+        for (slot in 0 until SLOT_COUNT) {
+            val offset = slot * SLOT_SIZE
+            if (!isValid(buffer, offset)) continue
+            val slotSequence = buffer.getLong(offset)
+            if (newest != null && slotSequence <= sequence) continue
+            sequence = slotSequence
+            newest = read(buffer, offset)
+        }
+        return newest
+    }
+
+    /**
+     * Writes [fused] and up to [MAX_BACKENDS] of the [backends] locations, keyed by [keyOf] their component.
+     */
+    @Synchronized
+    fun save(fused: Location?, backends: Map<String, Location>) {
+        val buffer = buffer ?: return
+        val offset = ((sequence + 1) % SLOT_COUNT).toInt() * SLOT_SIZE
+        buffer.putLong(offset, sequence + 1)
+        val entries = backends.entries.take(MAX_BACKENDS)
+        buffer.putInt(offset + COUNT_OFFSET, entries.size)
+        write(buffer, offset + ENTRIES_OFFSET, 0, fused)
+        for ((i, entry) in entries.withIndex()) {
+            write(buffer, offset + ENTRIES_OFFSET + (i + 1) * ENTRY_SIZE, keyOf(entry.key), entry.value)
+        }
+        buffer.putInt(offset + CRC_OFFSET, crc(buffer, offset))
+        sequence++
+        writes++
+        val now = SystemClock.elapsedRealtime()
+        if (now - lastForce >= FORCE_INTERVAL) {
+            lastForce = now
+            SerialDispatcher.backends.execute { force() }
+        }
+    }
+
+    @Synchronized
+    fun force() {
+        try {
+            buffer?.force()
+        } catch (e: Exception) {
+            Log.w(TAG, e)
+        }
+    }
+
+    private fun isValid(buffer: ByteBuffer, offset: Int): Boolean {
+        if (buffer.getLong(offset) <= 0) return false
+        val count = buffer.getInt(offset + COUNT_OFFSET)
+        if (count < 0 || count > MAX_BACKENDS) return false
+        return buffer.getInt(offset + CRC_OFFSET) == crc(buffer, offset)
+    }
+
+    private fun read(buffer: ByteBuffer, offset: Int): Snapshot {
+        val fused = read(buffer, offset + ENTRIES_OFFSET)
+        val backends = HashMap<Long, Location>()
+        for (i in 1..buffer.getInt(offset + COUNT_OFFSET)) {
+            val entryOffset = offset + ENTRIES_OFFSET + i * ENTRY_SIZE
+            read(buffer, entryOffset)?.let { backends[buffer.getLong(entryOffset)] = it }
+        }
+        return Snapshot(fused, backends)
+    }
+
+    private fun read(buffer: ByteBuffer, offset: Int): Location? {
+        val time = buffer.getLong(offset + 28)
+        if (time <= 0) return null
+        return Location(LocationManager.NETWORK_PROVIDER).apply {
+            latitude = buffer.getDouble(offset + 8)
+            longitude = buffer.getDouble(offset + 16)
+            accuracy = buffer.getFloat(offset + 24)
+            this.time = time
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                val age = (System.currentTimeMillis() - time).coerceAtLeast(0)
+                elapsedRealtimeNanos = ((SystemClock.elapsedRealtime() - age) * 1000000).coerceAtLeast(1)
+            }
+        }
+    }
+
+    private fun write(buffer: ByteBuffer, offset: Int, key: Long, location: Location?) {
+        buffer.putLong(offset, key)
+        buffer.putDouble(offset + 8, location?.latitude ?: 0.0)
+        buffer.putDouble(offset + 16, location?.longitude ?: 0.0)
+        buffer.putFloat(offset + 24, location?.accuracy ?: 0f)
+        buffer.putLong(offset + 28, location?.time ?: 0)
+    }
+
+    private fun crc(buffer: ByteBuffer, offset: Int): Int {
+        val crc = CRC32()
+        for (i in offset until offset + CRC_OFFSET) crc.update(buffer.get(i).toInt())
+        return crc.value.toInt()
+    }
+
+    @Synchronized
+    fun dump(writer: PrintWriter?) {
+        writer?.println("last location store: file=$file sequence=$sequence writes=$writes open=${buffer != null}")
+    }
+
+    companion object {
+        /**
+         * Maximum number of backend locations stored.
+         */
+        const val MAX_BACKENDS = 8
+        private const val SLOT_COUNT = 2
+        private const val ENTRY_SIZE = 36
+        private const val COUNT_OFFSET = 8
+        private const val ENTRIES_OFFSET = 12
+        private const val CRC_OFFSET = ENTRIES_OFFSET + (MAX_BACKENDS + 1) * ENTRY_SIZE
+        private const val SLOT_SIZE = CRC_OFFSET + 4
+        private const val FILE_SIZE = SLOT_COUNT * SLOT_SIZE
+        private const val FORCE_INTERVAL = 60000L
+
+        /**
+         * @return The 64-bit FNV-1a hash of [component], used to identify backend locations.
+         */
+        fun keyOf(component: String): Long {
+            var hash = -0x340d631b7bdddcdbL
+            for (c in component) {
+                hash = (hash xor c.code.toLong()) * 0x100000001b3L
+            }
+            return hash
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.location.Location
+import android.os.IBinder
+import android.os.SystemClock
+import android.util.Log
+import org.microg.nlp.fusion.MetricsRegistry
+import org.microg.nlp.service.api.Constants.STATUS_OK
+import org.microg.nlp.service.api.ILocationListener
+import java.io.PrintWriter
+import java.util.ArrayDeque
+import java.util.concurrent.ConcurrentHashMap
+
+private const val TAG = "LocationDelivery"
+
+/**
+ * Delivers locations to listeners asynchronously, with one bounded queue per listener.
+ *
+ * Each queue is drained on its own lane of [dispatcher], so a slow client only delays its own deliveries. If a queue
+ * is full when a new location arrives, the oldest queued single location is dropped in favor of the new one. Batches
+ * are never dropped, a batch is merged into a batch of the same request that is still queued instead. Deliveries of
+ * requests that were cancelled meanwhile are skipped.
+ */
+class LocationDeliveryQueues(private val dispatcher: SerialDispatcher, private val capacity: Int = DEFAULT_CAPACITY, private val metrics: MetricsRegistry = MetricsRegistry.location, private val callback: Callback) {
+    interface Callback {
+        /**
+         * Called on the delivery thread when delivering to [listener] failed.
+         */
+        fun onFailure(listener: ILocationListener, e: Exception)
+
+        /**
+         * Called on the delivery thread after [count] locations of [generation] were handed to the listener of
+         * [request].
+         */
+        fun onDelivered(request: LocationRequestInternal, generation: Int, count: Int)
+
+        /**
+         * Called on the delivery thread after [count] locations of [generation] queued for [request] were dropped.
+         */
+        fun onDropped(request: LocationRequestInternal, generation: Int, count: Int)
+    }
+
+    private val queues = ConcurrentHashMap<IBinder, ListenerQueue>()
+    private val totalDelivered = metrics.counter("delivery.delivered")
+    private val totalDropped = metrics.counter("delivery.dropped")
+    private val totalTransactions = metrics.counter("delivery.transactions")
+    private val totalLatency = metrics.histogram("delivery.latency_ms")
+
+    fun enqueue(request: LocationRequestInternal, location: Location) {
+        queueOf(request.listener).enqueue(Delivery(request, request.generation, location, null))
+    }
+
+    /**
+     * Queues [locations] to be delivered in a single [ILocationListener.onLocations] call.
+     */
+    fun enqueueBatch(request: LocationRequestInternal, locations: List<Location>) {
+        if (locations.isEmpty()) return
+        queueOf(request.listener).enqueue(Delivery(request, request.generation, null, ArrayList(locations)))
+    }
+
+    private fun queueOf(listener: ILocationListener): ListenerQueue {
+        val binder = listener.asBinder()
+        queues[binder]?.let { return it }
+        val queue = ListenerQueue(listener)
+        val existing = queues.putIfAbsent(binder, queue) ?: return queue
+        queue.close()
+        return existing
+    }
+
+    /**
+     * Forgets the queue of [binder]. Locations already queued are still delivered.
+     */
+    fun remove(binder: IBinder) {
+        queues.remove(binder)?.let {
+            it.close()
+            metrics.remove(it.prefix)
+        }
+    }
+
+    fun dump(writer: PrintWriter?) {
+        writer?.println("${queues.size} delivery queues:")
+        for (queue in queues.values) {
+            queue.dump(writer)
+        }
+    }
+
+    private class Delivery(val request: LocationRequestInternal, val generation: Int, val location: Location?, val batch: MutableList<Location>?) {
+        val size: Int
+            get() = batch?.size ?: 1
+        val enqueueTime = SystemClock.elapsedRealtime()
+    }
+
+    private inner class ListenerQueue(private val listener: ILocationListener) {
+        private val lane = dispatcher.newLane()
+        private val deliveries = ArrayDeque<Delivery>()
+        private var draining = false
+        private var lastLag: Long = 0
+        val prefix = "delivery.${Integer.toHexString(System.identityHashCode(listener.asBinder()))}."
+        private val delivered = metrics.counter(prefix + "delivered")
+        private val transactions = metrics.counter(prefix + "transactions")
+        private val dropped = metrics.counter(prefix + "dropped")
+        private val latency = metrics.histogram(prefix + "latency_ms")
+
+        fun enqueue(delivery: Delivery) {
+            var drop: Delivery? = null
+            val start: Boolean
+            synchronized(this) {
+                if (delivery.batch != null) {
+                    val queued = deliveries.lastOrNull { it.batch != null && it.request === delivery.request && it.generation == delivery.generation }
+                    if (queued != null) {
+                        queued.batch!!.addAll(delivery.batch)
+                        return
+                    }
+                }
+                val oldest = if (deliveries.size >= capacity) deliveries.firstOrNull { it.batch == null } else null
+                if (oldest != null) {
+                    deliveries.remove(oldest)
+                    dropped.increment()
+                    totalDropped.increment()
+                    drop = oldest
+                }
+                deliveries.offer(delivery)
+                start = !draining
+                draining = true
+            }
+            if (start) lane.execute { drain() }
+            // Notified on the lane, as the caller may hold locks the callback must not take
+            drop?.let { lane.execute { callback.onDropped(it.request, it.generation, it.size) } }
+        }
+
+        private fun drain() {
+            while (true) {
+                val delivery: Delivery
+                synchronized(this) {
+                    if (deliveries.isEmpty()) {
+                        draining = false
+                        return
+                    }
+                    delivery = deliveries.poll()!!
+                }
+                if (delivery.request.cancelled) continue
+                try {
+                    if (delivery.batch != null) {
+                        listener.onLocations(STATUS_OK, delivery.batch)
+                    } else {
+                        listener.onLocation(STATUS_OK, delivery.location)
+                    }
+                } catch (e: Exception) {
+                    Log.w(TAG, "Failed delivering location", e)
+                    synchronized(this) {
+                        clear()
+                        draining = false
+                    }
+                    callback.onFailure(listener, e)
+                    return
+                }
+                val lag = SystemClock.elapsedRealtime() - delivery.enqueueTime
+                synchronized(this) {
+                    lastLag = lag
+                }
+                callback.onDelivered(delivery.request, delivery.generation, delivery.size)
+                delivered.increment(delivery.size.toLong())
+                totalDelivered.increment(delivery.size.toLong())
+                transactions.increment()
+                totalTransactions.increment()
+                latency.record(lag)
+                totalLatency.record(lag)
+            }
+        }
+
+        fun close() {
+            lane.close()
+        }
+
+        private fun clear() {
+            val count = deliveries.sumOf { it.size }.toLong()
+            dropped.increment(count)
+            totalDropped.increment(count)
+            deliveries.clear()
+        }
+
+        @Synchronized
+        fun dump(writer: PrintWriter?) {
+            writer?.println("  ${listener.asBinder()} ($prefix): queued=${deliveries.size} delivered=${delivered.count} transactions=${transactions.count} dropped=${dropped.count} lag=${lastLag}ms latency $latency")
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 4
+    }
+}
@@ -6,9 +6,11 @@
 package org.microg.nlp.service
 
 import android.annotation.TargetApi
+import android.app.ActivityManager
 import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
+import android.content.pm.PackageManager
 import android.location.Location
 import android.location.LocationManager
 import android.os.*
@@ -16,45 +18,141 @@ import android.util.Log
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.lifecycleScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 
 import java.util.ArrayList
 import java.util.Collections
-import java.util.Comparator
 
 import org.microg.nlp.api.Constants.ACTION_LOCATION_BACKEND
+import org.microg.nlp.api.Constants.BACKEND_COST_LOCAL
+import org.microg.nlp.api.Constants.BACKEND_COST_NETWORK
+import org.microg.nlp.api.Constants.METADATA_BACKEND_COST
 import org.microg.nlp.api.LocationCallback
+import org.microg.nlp.fusion.Fix
+import org.microg.nlp.fusion.FusionPipeline
+import org.microg.nlp.fusion.KalmanLocationSmoother
+import org.microg.nlp.fusion.LocationFusion
+import org.microg.nlp.fusion.LocationOutlierFilter
+import org.microg.nlp.fusion.LocationSmoother
+import org.microg.nlp.fusion.MetricsRegistry
+import org.microg.nlp.fusion.TraceEvent
 import org.microg.nlp.service.api.Constants
 import java.io.PrintWriter
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeoutException
+import kotlin.math.min
 
 private const val TAG = "LocationFuser"
 
 val Location.isValid: Boolean
-    get() {
-        if (!latitude.isFinite() || latitude > 90 || latitude < -90) return false
-        if (!longitude.isFinite() || longitude > 180 || longitude < -180) return false
-        if (!accuracy.isFinite() || accuracy < 0) return false
-        return true
-    }
+    get() = Fix.isValid(latitude, longitude, accuracy)
+
+/**
+ * @return A fix with the position, accuracy, time, speed and bearing of this location, with this location as source.
+ */
+fun Location.toFix(): Fix = Fix(latitude, longitude, if (hasAccuracy()) accuracy else Float.NaN, time, this).also {
+    it.speed = speed
+    it.hasSpeed = hasSpeed()
+    it.bearing = bearing
+    it.hasBearing = hasBearing()
+}
+
+/**
+ * Copies position, accuracy, speed and bearing of this fix to [location].
+ */
+fun Fix.applyTo(location: Location) {
+    location.latitude = latitude
+    location.longitude = longitude
+    if (hasAccuracy) location.accuracy = accuracy
+    if (hasSpeed) location.speed = speed else location.removeSpeed()
+    if (hasBearing) location.bearing = bearing else location.removeBearing()
+}
 
-class LocationFuser(private val context: Context, private val lifecycle: Lifecycle, private val receiver: LocationReceiver) : LifecycleOwner {
+class LocationFuser(private val context: Context, private val lifecycle: Lifecycle, private val receiver: LocationReceiver, smoother: LocationSmoother = KalmanLocationSmoother()) : LifecycleOwner {
 
     private val backendHelpers = CopyOnWriteArrayList<LocationBackendHelper>()
     private var fusing = false
-    private var lastLocationReportTime: Long = 0
+    private var updateQuorum: Int = 0
+    private var lastUpdateTime: Long = 0
+    @Volatile
+    private var active = false
+    private var idleTimeout: Long = Preferences.DEFAULT_BACKEND_IDLE_TIMEOUT
+    private var idleUnbind: Job? = null
+    private val backendOpened = Channel<Unit>(Channel.CONFLATED)
+    private val createTime = SystemClock.elapsedRealtime()
+    private var bindTime: Long = 0
+    private var firstFixPending = true
+    private var firstFixSinceBindPending = false
+    @Volatile
+    private var awaitingBackends = false
+    private var restoredLocations: Map<Long, Location> = emptyMap()
+    private val rounds = MetricsRegistry.location.counter("fusion.rounds")
+    private val fixes = MetricsRegistry.location.counter("fusion.fixes")
+    private val fusionTime = MetricsRegistry.location.histogram("fusion.time_us")
+
+    /**
+     * Records the results of all backends, if enabled.
+     */
+    val recorder = TraceRecorder.getInstance(context)
+
+    /**
+     * Time in milliseconds from the creation of this fuser to the first fused location, -1 if there was none yet.
+     */
+    var timeToFirstFix: Long = -1
+        private set
+
+    /**
+     * Time in milliseconds from the last time backends were bound to the first fused location after that, -1 if
+     * there was none yet.
+     */
+    var timeToFirstFixSinceBind: Long = -1
+        private set
+
+    /**
+     * Accuracy in meters required by the most demanding client. More expensive backends are only asked if the cheaper
+     * ones can't provide it. [Float.MAX_VALUE] if no client asked for an accuracy, then all backends are asked.
+     */
+    @Volatile
+    var requiredAccuracy: Float = Float.MAX_VALUE
+    private val pipeline = FusionPipeline(smoother, object : LocationOutlierFilter.Listener {
+        override fun onRejected(location: Fix, reason: LocationOutlierFilter.Reason) {
+            val source = location.source as? Location ?: return
+            backendHelpers.find { it.lastLocation === source }?.onRejected(source, reason)
+        }
+    })
 
     suspend fun reset() {
         unbind()
+        // Keep the locations of the current backends, the persisted ones are only used for the first backends
+        val locations = if (backendHelpers.isEmpty()) restoredLocations else getBackendLocations().mapKeys { LastLocationStore.keyOf(it.key) }
+        restoredLocations = emptyMap()
         backendHelpers.clear()
-        lastLocationReportTime = 0
-        for (backend in Preferences(context).locationBackends) {
+        pipeline.reset()
+        val preferences = Preferences(context)
+        updateQuorum = preferences.locationUpdateQuorum
+        idleTimeout = preferences.backendIdleTimeout
+        recorder.setEnabled(preferences.locationTrace)
+        recorder.register(this)
+        val updateDeadline = preferences.locationUpdateDeadline
+        for (backend in preferences.locationBackends) {
             Log.d(TAG, "Backend: $backend")
             val parts = backend.split("/".toRegex()).dropLastWhile(String::isEmpty).toTypedArray()
             if (parts.size >= 2) {
                 val intent = Intent(ACTION_LOCATION_BACKEND)
                 intent.setPackage(parts[0])
                 intent.setClassName(parts[0], parts[1])
-                backendHelpers.add(LocationBackendHelper(context, this, lifecycle, intent, if (parts.size >= 3) parts[2] else null))
+                val helper = LocationBackendHelper(context, this, lifecycle, intent, if (parts.size >= 3) parts[2] else null)
+                helper.updateDeadline = updateDeadline
+                locations[LastLocationStore.keyOf(intent.component!!.flattenToShortString())]?.let { helper.restoreLocation(it) }
+                backendHelpers.add(helper)
             }
         }
     }
@@ -71,41 +169,200 @@ class LocationFuser(private val context: Context, private val lifecycle: Lifecyc
         }
     }
 
+    /**
+     * Binds the backends, if they are needed or still kept warm after they were last needed.
+     */
     fun bind() {
+        if (!active && idleUnbind?.isActive != true) return
+        bindNow()
+    }
+
+    private fun bindNow() {
         fusing = false
+        if (backendHelpers.any { !it.bound }) {
+            bindTime = SystemClock.elapsedRealtime()
+            firstFixSinceBindPending = true
+            awaitingBackends = true
+        }
         for (handler in backendHelpers) {
             handler.bind()
         }
     }
 
+    /**
+     * Called by a helper once its backend was connected and opened.
+     */
+    fun onBackendOpened() {
+        backendOpened.trySend(Unit)
+    }
+
+    /**
+     * Waits until the update quorum of backends is open, so the first round after binding doesn't run without
+     * backends. Backends still connecting afterwards answer the round asynchronously once they are open.
+     *
+     * Only backends that are bound or being bound count towards the quorum, so a backend that is not installed, has
+     * a mismatching signature or an open circuit doesn't delay the round until [BIND_TIMEOUT].
+     */
+    private suspend fun awaitBackends() {
+        if (!awaitingBackends) return
+        awaitingBackends = false
+        val helpers = backendHelpers.toList()
+        val candidates = helpers.count { it.binding }
+        val quorum = if (updateQuorum <= 0) candidates else min(updateQuorum, candidates)
+        if (helpers.count { it.opened } >= quorum) return
+        val start = SystemClock.elapsedRealtime()
+        withTimeoutOrNull(BIND_TIMEOUT) {
+            while (helpers.count { it.opened } < quorum) backendOpened.receive()
+        }
+        Log.d(TAG, "${helpers.count { it.opened }}/${helpers.size} backends open after ${SystemClock.elapsedRealtime() - start}ms")
+    }
+
+    /**
+     * Sets whether there are requests waiting for location updates.
+     *
+     * Backends are bound as soon as there are, and closed and unbound once there weren't any for the configured idle
+     * timeout.
+     */
+    @Synchronized
+    fun setActive(active: Boolean) {
+        if (this.active == active) return
+        this.active = active
+        if (active) {
+            idleUnbind?.cancel()
+            idleUnbind = null
+            bindNow()
+        } else {
+            scheduleIdleUnbind()
+        }
+    }
+
+    private fun scheduleIdleUnbind() {
+        idleUnbind?.cancel()
+        idleUnbind = lifecycleScope.launch {
+            delay(idleTimeout)
+            if (!active) {
+                Log.d(TAG, "No requests for ${idleTimeout}ms, unbinding backends")
+                unbind()
+            }
+        }
+    }
+
     fun destroy() {
+        idleUnbind?.cancel()
         unbindNow()
         backendHelpers.clear()
+        recorder.unregister(this)
     }
 
+    /**
+     * Requests an update from the backends, starting with the cheapest [LocationBackendHelper.costTier].
+     *
+     * All backends of a tier are asked concurrently. The next, more expensive tier is only asked if the locations known
+     * so far can't be fused into a location that meets [requiredAccuracy]. Without a required accuracy, all tiers are
+     * asked.
+     *
+     * Backends are asked in order of their [BackendStatistics.score]. If rounds are requested in quick succession,
+     * backends that are known to perform poorly are only asked every [POOR_BACKEND_INTERVAL] milliseconds.
+     */
     suspend fun update() {
-        var hasUpdates = false
+        if (!active) synchronized(this) {
+            // Updates forced without requests only keep backends bound for the idle timeout
+            bindNow()
+            scheduleIdleUnbind()
+        }
+        val now = SystemClock.elapsedRealtime()
+        val highFrequency = now - lastUpdateTime < HIGH_FREQUENCY_INTERVAL
+        lastUpdateTime = now
+        val rankedHelpers = backendHelpers.sortedByDescending { it.statistics.score }
+        val helpers = rankedHelpers.filter { !highFrequency || !it.statistics.isPoor(it.updateDeadline) || now - it.lastUpdateRequestTime >= POOR_BACKEND_INTERVAL }
+                .ifEmpty { rankedHelpers }
+        if (helpers.isEmpty()) return
+        rounds.increment()
+        awaitBackends()
+        if (helpers.size < rankedHelpers.size) Log.d(TAG, "Skipping ${rankedHelpers.size - helpers.size} poorly performing backends")
+        var results = 0
         fusing = true
-        for (handler in backendHelpers) {
-            if (handler.update() != null)
-                hasUpdates = true
+        try {
+            for ((tier, tierHelpers) in helpers.groupBy { it.costTier }.toSortedMap()) {
+                if (results > 0 && requiredAccuracy < Float.MAX_VALUE) {
+                    val accuracy = estimateAccuracy()
+                    if (accuracy != null && accuracy <= requiredAccuracy) {
+                        Log.d(TAG, "Fused accuracy $accuracy meets $requiredAccuracy, not asking backends of tier $tier and above")
+                        break
+                    }
+                }
+                results += updateBackends(tierHelpers)
+            }
+        } finally {
+            fusing = false
         }
-        fusing = false
-        if (hasUpdates)
+        if (results > 0)
             updateLocation()
     }
 
-    fun updateLocation() {
+    /**
+     * Requests an update from all [helpers] concurrently.
+     *
+     * The round finishes once every backend answered or hit its deadline, or as soon as the configured quorum of
+     * backends returned a location. Updates still running at that point are not cancelled, their results are reported
+     * like asynchronous backend results.
+     *
+     * @return The number of backends that returned a location in time.
+     */
+    private suspend fun updateBackends(helpers: List<LocationBackendHelper>): Int {
+        val quorum = if (updateQuorum <= 0) helpers.size else min(updateQuorum, helpers.size)
+        var results = 0
+        coroutineScope {
+            val answers = Channel<Boolean>(Channel.UNLIMITED)
+            for (handler in helpers) {
+                val pending = handler.updateAsync()
+                launch {
+                    answers.send(withTimeoutOrNull(handler.updateDeadline) { pending.await() } != null)
+                }
+            }
+            for (i in helpers.indices) {
+                if (answers.receive()) results++
+                if (results >= quorum) break
+            }
+            coroutineContext.cancelChildren()
+        }
+        return results
+    }
+
+    private fun collectLocations(): List<Location> {
         val locations = ArrayList<Location>()
         for (handler in backendHelpers) {
             handler.lastLocation?.let { locations.add(it) }
         }
-        val location = mergeLocations(locations)
-        if (location != null && location.latitude.isFinite()) {
+        return locations
+    }
+
+    @Synchronized
+    fun updateLocation() {
+        val start = System.nanoTime()
+        val results = collectFixes()
+        val fused = pipeline.fuse(results) { weightOf(it) }
+        val location = fused?.let { toLocation(it, results) }
+        fusionTime.record((System.nanoTime() - start) / 1000)
+        if (fused != null && location != null && location.latitude.isFinite()) {
             location.provider = LocationManager.NETWORK_PROVIDER
-            if (lastLocationReportTime < location.time) {
-                lastLocationReportTime = location.time
+            if (pipeline.isNewer(fused)) {
+                val now = SystemClock.elapsedRealtime()
+                if (firstFixPending) {
+                    firstFixPending = false
+                    timeToFirstFix = now - createTime
+                }
+                if (firstFixSinceBindPending) {
+                    firstFixSinceBindPending = false
+                    timeToFirstFixSinceBind = now - bindTime
+                }
+                for (handler in backendHelpers) {
+                    handler.onFused(location)
+                }
+                pipeline.report(fused)
+                fused.applyTo(location)
                 Log.v(TAG, "Fused location: $location")
+                fixes.increment()
                 receiver.reportLocation(location)
             } else {
                 Log.v(TAG, "Ignoring location update as it's older than other provider.")
@@ -113,15 +370,27 @@ class LocationFuser(private val context: Context, private val lifecycle: Lifecyc
         }
     }
 
-    private fun mergeLocations(locations: List<Location>): Location? {
-        val locations = locations.filter { it.isValid }.sortedWith(LocationComparator)
-        if (locations.isEmpty()) return null
-        if (locations.size == 1) return locations[0]
-        val location = Location(locations[0])
+    private fun collectFixes(): MutableList<Fix> {
+        val locations = collectLocations()
+        val fixes = ArrayList<Fix>(locations.size)
+        for (location in locations) {
+            fixes.add(location.toFix())
+        }
+        return fixes
+    }
+
+    /**
+     * @return A location with the position of [fused], listing the other backend results in [fixes] that contributed to
+     * it in its extras.
+     */
+    private fun toLocation(fused: Fix, fixes: List<Fix>): Location {
+        val location = Location(fused.source as Location)
+        fused.applyTo(location)
         val backendResults = ArrayList<Location>()
-        for (backendResult in locations) {
-            if (locations[0] == backendResult) continue
-            backendResults.add(backendResult)
+        for (i in 1 until fixes.size) {
+            if (LocationFusion.contributes(fixes[i], fixes[0]) { weightOf(it) }) {
+                backendResults.add(fixes[i].source as Location)
+            }
         }
         if (backendResults.isNotEmpty()) {
             location.extras.putParcelableArrayList(Constants.LOCATION_EXTRA_OTHER_BACKENDS, backendResults)
@@ -129,41 +398,89 @@ class LocationFuser(private val context: Context, private val lifecycle: Lifecyc
         return location
     }
 
+    /**
+     * @return The accuracy of the location that would be fused from the current backend locations, without counting
+     * rejected outliers.
+     */
+    @Synchronized
+    private fun estimateAccuracy(): Float? = pipeline.estimate(collectFixes()) { weightOf(it) }?.accuracy
+
+    private fun weightOf(fix: Fix): Double =
+            backendHelpers.find { it.lastLocation === fix.source }?.statistics?.weight ?: 1.0
+
     fun reportLocation() {
         if (fusing)
             return
         updateLocation()
     }
 
+    /**
+     * Sets the locations of backends persisted before the service was started, keyed by [LastLocationStore.keyOf]
+     * their component. They are handed to the backends created by the next [reset], later resets hand over the
+     * locations of the replaced backends instead.
+     */
+    fun restoreBackendLocations(locations: Map<Long, Location>) {
+        restoredLocations = locations
+        for (helper in backendHelpers) {
+            locations[LastLocationStore.keyOf(helper.serviceIntent.component!!.flattenToShortString())]?.let { helper.restoreLocation(it) }
+        }
+    }
+
+    /**
+     * @return The last location of each backend that has one, keyed by its component.
+     */
+    fun getBackendLocations(): Map<String, Location> =
+            backendHelpers.mapNotNull { helper -> helper.lastLocation?.let { helper.serviceIntent.component!!.flattenToShortString() to it } }.toMap()
+
+    /**
+     * @return The circuit breaker state of each backend, one line per backend.
+     */
+    fun getBackendStates(): List<String> =
+            backendHelpers.map { "${it.serviceIntent.component?.flattenToShortString()} bound=${it.bound} ${it.breaker}" }
+
     fun getLastLocationForBackend(packageName: String?, className: String?, signatureDigest: String?): Location? =
             backendHelpers.find {
                 it.serviceIntent.`package` == packageName && it.serviceIntent.component?.className == className && (signatureDigest == null || it.signatureDigest == null || it.signatureDigest == signatureDigest)
             }?.lastLocation
 
     fun dump(writer: PrintWriter?) {
+        writer?.println("time to first fix: since start=${timeToFirstFix}ms since bind=${timeToFirstFixSinceBind}ms")
+        writer?.println("active=$active idle timeout=${idleTimeout}ms idle unbind pending=${idleUnbind?.isActive == true}")
+        dumpProcesses(writer)
+        recorder.dump(writer)
+        writer?.println("outliers rejected: speed=${backendHelpers.sumOf { it.statistics.rejectedBySpeed }} consensus=${backendHelpers.sumOf { it.statistics.rejectedByConsensus }}")
         writer?.println("${backendHelpers.size} backends:")
-        for (helper in backendHelpers) {
+        for (helper in backendHelpers.sortedByDescending { it.statistics.score }) {
             helper?.dump(writer)
         }
     }
 
+    private fun dumpProcesses(writer: PrintWriter?) {
+        val manager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager ?: return
+        val packages = backendHelpers.filter { it.bound }.mapNotNull { it.serviceIntent.`package` }.toSet()
+        val processes = manager.runningAppProcesses.orEmpty().filter { process -> process.pid != Process.myPid() && process.pkgList?.any { it in packages } == true }
+        val memory = manager.getProcessMemoryInfo((listOf(Process.myPid()) + processes.map { it.pid }).toIntArray())
+        writer?.println("bound backends: ${backendHelpers.count { it.bound }}/${backendHelpers.size} in ${processes.size} other processes")
+        writer?.println("resident memory (PSS): service=${memory[0].totalPss}kB backends=${memory.drop(1).sumOf { it.totalPss }}kB")
+    }
+
     override fun getLifecycle(): Lifecycle = lifecycle
 
-    object LocationComparator : Comparator<Location> {
-        val SWITCH_ON_FRESHNESS_CLIFF_MS: Long = 30000 // 30 seconds
+    companion object {
         /**
-         * @return whether {@param lhs} is better than {@param rhs}
+         * Rounds closer together than this are considered high-frequency rounds.
          */
-        override fun compare(lhs: Location?, rhs: Location?): Int {
-            if (lhs === rhs) return 0
-            if (lhs == null) return 1
-            if (rhs == null) return -1
-            if (!lhs.hasAccuracy()) return 1
-            if (!rhs.hasAccuracy()) return -1
-            if (rhs.time > lhs.time + SWITCH_ON_FRESHNESS_CLIFF_MS) return 1
-            if (lhs.time > rhs.time + SWITCH_ON_FRESHNESS_CLIFF_MS) return -1
-            return (lhs.accuracy - rhs.accuracy).toInt()
-        }
+        const val HIGH_FREQUENCY_INTERVAL: Long = 30000
+
+        /**
+         * Minimum time between two requests to a poorly performing backend in high-frequency rounds.
+         */
+        const val POOR_BACKEND_INTERVAL: Long = 300000
+
+        /**
+         * Maximum time the first round after binding waits for backends to be opened.
+         */
+        const val BIND_TIMEOUT: Long = 10000
     }
 }
 
@@ -171,7 +488,34 @@ class LocationFuser(private val context: Context, private val lifecycle: Lifecyc
 class LocationBackendHelper(context: Context, private val locationFuser: LocationFuser, lifecycle: Lifecycle, serviceIntent: Intent, signatureDigest: String?) : AbstractBackendHelper(TAG, context, lifecycle, serviceIntent, signatureDigest) {
     private val callback = Callback()
     private var backend: AsyncLocationBackend? = null
+
+    /**
+     * Cost class declared by the backend using [METADATA_BACKEND_COST], lower is cheaper.
+     */
+    val costTier: Int = try {
+        when (context.packageManager.getServiceInfo(serviceIntent.component!!, PackageManager.GET_META_DATA).metaData?.getString(METADATA_BACKEND_COST)) {
+            BACKEND_COST_LOCAL -> COST_TIER_LOCAL
+            BACKEND_COST_NETWORK -> COST_TIER_NETWORK
+            else -> COST_TIER_DEFAULT
+        }
+    } catch (e: Exception) {
+        COST_TIER_DEFAULT
+    }
     private var updateWaiting: Boolean = false
+
+    /**
+     * Whether the backend is connected and was opened successfully.
+     */
+    @Volatile
+    var opened: Boolean = false
+        private set
+    private var pendingUpdate: Deferred<Location?>? = null
+    private var lastFusedTime: Long = 0
+    private var lastRejectedTime: Long = 0
+    var updateDeadline: Long = Preferences.DEFAULT_LOCATION_UPDATE_DEADLINE
+    val statistics = BackendStatistics(serviceIntent.component!!.flattenToShortString())
+    var lastUpdateRequestTime: Long = 0
+        private set
     var lastLocation: Location? = null
         private set(location) {
             if (location == null || !location.hasAccuracy()) {
@@ -196,6 +540,23 @@ class LocationBackendHelper(context: Context, private val locationFuser: Locatio
             field = location
         }
 
+    /**
+     * Uses [location] persisted before the service was started as last location, unless the backend already reported one.
+     */
+    fun restoreLocation(location: Location) {
+        if (lastLocation == null) lastLocation = location
+    }
+
+    /**
+     * Requests a location update from the backend, unless there is already one in progress.
+     *
+     * @return The pending result of [update].
+     */
+    fun updateAsync(): Deferred<Location?> {
+        pendingUpdate?.takeIf { it.isActive }?.let { return it }
+        return lifecycleScope.async { update() }.also { pendingUpdate = it }
+    }
+
     /**
      * Requests a location update from the backend.
      *
@@ -204,31 +565,70 @@ class LocationBackendHelper(context: Context, private val locationFuser: Locatio
      */
     suspend fun update(): Location? {
         var result: Location? = null
-        if (backend == null) {
+        if (backend == null || !opened) {
             Log.d(TAG, "Not (yet) bound.")
             updateWaiting = true
         } else {
             updateWaiting = false
+            val start = SystemClock.elapsedRealtime()
+            lastUpdateRequestTime = start
             try {
                 result = backend?.update()
-                if (result == null) {
-                    Log.d(TAG, "Received no location from ${serviceIntent.component!!.flattenToShortString()}")
+                onUpdated(result, start)
+            } catch (e: TimeoutException) {
+                statistics.onUpdate(SystemClock.elapsedRealtime() - start, hasResult = false, failed = true)
+                if (backend?.degraded == true) {
+                    Log.w(TAG, "Backend ${serviceIntent.component!!.flattenToShortString()} is degraded, unbinding")
+                    onFailure(e)
                 } else {
-                    Log.d(TAG, "Received location from ${serviceIntent.component!!.flattenToShortString()} with time ${result.time} (last was ${lastLocation?.time ?: 0})")
-                    if (this.lastLocation == null || result.time > this.lastLocation!!.time) {
-                        lastLocation = result
-                        locationFuser.reportLocation()
-                    }
+                    Log.w(TAG, e)
                 }
             } catch (e: Exception) {
-                Log.w(TAG, e)
-                unbind()
+                statistics.onUpdate(SystemClock.elapsedRealtime() - start, hasResult = false, failed = true)
+                onFailure(e)
             }
 
         }
         return result
     }
 
+    /**
+     * Records the result of an update call started at [start] and reports it to the fuser if it is newer than the last
+     * location of this backend.
+     */
+    private fun onUpdated(result: Location?, start: Long) {
+        statistics.onUpdate(SystemClock.elapsedRealtime() - start, result != null)
+        locationFuser.recorder.record(TraceEvent.Kind.UPDATE, serviceIntent.component!!.flattenToShortString(), result)
+        if (result == null) {
+            Log.d(TAG, "Received no location from ${serviceIntent.component!!.flattenToShortString()}")
+        } else {
+            Log.d(TAG, "Received location from ${serviceIntent.component!!.flattenToShortString()} with time ${result.time} (last was ${lastLocation?.time ?: 0})")
+            if (this.lastLocation == null || result.time > this.lastLocation!!.time) {
+                lastLocation = result
+                locationFuser.reportLocation()
+            }
+        }
+    }
+
+    /**
+     * Records the error of the last location of this backend against a newly fused location.
+     */
+    fun onFused(fused: Location) {
+        val location = lastLocation ?: return
+        if (location.time == lastFusedTime || fused.time - location.time > LocationFusion.MAX_FIX_AGE_MS) return
+        lastFusedTime = location.time
+        statistics.onFused(location, fused)
+    }
+
+    /**
+     * Counts a rejection of the last location of this backend, once per location.
+     */
+    fun onRejected(location: Location, reason: LocationOutlierFilter.Reason) {
+        if (location.time == lastRejectedTime) return
+        lastRejectedTime = location.time
+        statistics.onRejected(reason)
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     private fun updateElapsedRealtimeNanos(location: Location) {
         if (location.elapsedRealtimeNanos <= 0) {
@@ -248,33 +648,71 @@ class LocationBackendHelper(context: Context, private val locationFuser: Locatio
 
     override fun onServiceConnected(name: ComponentName, service: IBinder) {
         super.onServiceConnected(name, service)
+        backend?.release()
         backend = AsyncLocationBackend(service, name.toShortString() + "-location-backend")
         lifecycleScope.launchWhenStarted {
             try {
                 Log.d(TAG, "Calling open")
                 backend!!.open(callback)
-                if (updateWaiting) {
-                    update()
-                }
             } catch (e: Exception) {
-                Log.w(TAG, e)
-                unbind()
+                onFailure(e)
+                return@launchWhenStarted
+            }
+            if (!probeIfNeeded()) return@launchWhenStarted
+            opened = true
+            locationFuser.onBackendOpened()
+            if (updateWaiting) {
+                update()
             }
         }
     }
 
     override fun onServiceDisconnected(name: ComponentName) {
         super.onServiceDisconnected(name)
+        backend?.release()
         backend = null
+        opened = false
+    }
+
+    override fun onUnbound() {
+        backend?.release()
+        backend = null
+        opened = false
+    }
+
+    /**
+     * Asks the backend for a location, which must not fail. The result is handled like that of a regular update.
+     */
+    override suspend fun probe() {
+        val backend = backend ?: throw RemoteException("${serviceIntent.component} is not connected")
+        val start = SystemClock.elapsedRealtime()
+        lastUpdateRequestTime = start
+        val result = try {
+            backend.update()
+        } catch (e: Exception) {
+            statistics.onUpdate(SystemClock.elapsedRealtime() - start, hasResult = false, failed = true)
+            throw e
+        }
+        onUpdated(result, start)
     }
 
     override fun dump(writer: PrintWriter?) {
         super.dump(writer)
+        writer?.println("    cost tier: $costTier opened=$opened")
         writer?.println("    last location: ${lastLocation?.let { Location(it) }}")
+        backend?.let { writer?.println("    timeouts: ${it.timeouts} degraded=${it.degraded}") }
+        statistics.dump(writer)
+    }
+
+    companion object {
+        const val COST_TIER_LOCAL = 0
+        const val COST_TIER_DEFAULT = 1
+        const val COST_TIER_NETWORK = 2
     }
 
     private inner class Callback : LocationCallback.Stub() {
         override fun report(location: Location?) {
+            locationFuser.recorder.record(TraceEvent.Kind.REPORT, serviceIntent.component!!.flattenToShortString(), location)
             val lastLocation = lastLocation
             if (location == null || lastLocation != null && location.time > 0 && location.time <= lastLocation.getTime())
                 return
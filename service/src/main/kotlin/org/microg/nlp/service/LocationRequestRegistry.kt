@@ -0,0 +1,179 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.os.IBinder
+import org.microg.nlp.fusion.RequestIndex
+import org.microg.nlp.service.api.ILocationListener
+
+/**
+ * Active location requests, indexed by (id, calling pid) and by listener binder.
+ *
+ * The intervals and accuracies of all requests that still wait for updates are kept in a [RequestIndex], so the
+ * merged interval and accuracy are available in constant time and every change to the registry is logarithmic.
+ * Passive requests are not indexed, so they never influence the merged interval or accuracy.
+ *
+ * @param onListenerRemoved Called with the registry locked when the last request of a listener was removed.
+ */
+class LocationRequestRegistry(private val onListenerRemoved: (IBinder) -> Unit = {}) {
+    private data class Key(val id: String, val pid: Int)
+
+    private val byKey = HashMap<Key, LocationRequestInternal>()
+    private val byListener = HashMap<IBinder, MutableSet<LocationRequestInternal>>()
+    private val index = RequestIndex()
+    private var snapshot: Array<LocationRequestInternal>? = null
+
+    val size: Int
+        @Synchronized get() = byKey.size
+
+    /**
+     * Smallest interval of all periodic requests, [Long.MAX_VALUE] if there are none.
+     */
+    val minInterval: Long
+        @Synchronized get() = index.minInterval
+
+    /**
+     * Best accuracy requested by any request, [Float.MAX_VALUE] if there is none.
+     */
+    val minAccuracy: Float
+        @Synchronized get() = index.minAccuracy
+
+    /**
+     * Whether any request waits for a single update without interval.
+     */
+    val hasSingleUpdate: Boolean
+        @Synchronized get() = index.hasSingleUpdate
+
+    /**
+     * Adds [request], or updates the existing request with the same id from the same process.
+     */
+    @Synchronized
+    fun put(request: LocationRequestInternal) {
+        val key = Key(request.id, request.callingPid)
+        val existing = byKey[key]
+        if (existing != null) {
+            unindex(existing)
+            if (existing.listener.asBinder() == request.listener.asBinder()) {
+                existing.adopt(request)
+            } else {
+                removeListener(existing)
+                existing.adopt(request)
+                addListener(existing)
+            }
+            index(existing)
+        } else {
+            byKey[key] = request
+            addListener(request)
+            index(request)
+            snapshot = null
+        }
+    }
+
+    @Synchronized
+    fun contains(request: LocationRequestInternal): Boolean = byKey[Key(request.id, request.callingPid)] === request
+
+    /**
+     * Removes [request] and cancels its deliveries that were not made yet.
+     */
+    @Synchronized
+    fun remove(request: LocationRequestInternal) {
+        if (unregister(request)) request.cancelled = true
+    }
+
+    private fun unregister(request: LocationRequestInternal): Boolean {
+        val key = Key(request.id, request.callingPid)
+        if (byKey[key] !== request) return false
+        byKey.remove(key)
+        removeListener(request)
+        unindex(request)
+        snapshot = null
+        return true
+    }
+
+    @Synchronized
+    fun removeById(id: String, pid: Int) {
+        byKey[Key(id, pid)]?.let { remove(it) }
+    }
+
+    @Synchronized
+    fun removeByListener(listener: ILocationListener) {
+        byListener[listener.asBinder()]?.toList()?.forEach { remove(it) }
+    }
+
+    /**
+     * Runs [report] for [request] with the registry locked, so the request can neither be replaced nor removed
+     * meanwhile. Afterwards, the indexes are updated.
+     *
+     * @return The result of [report], false if [request] is not registered or doesn't wait for more updates.
+     */
+    @Synchronized
+    fun report(request: LocationRequestInternal, report: (LocationRequestInternal) -> Boolean): Boolean {
+        if (!contains(request) || request.updatesPending <= 0) return false
+        val result = report(request)
+        reindex(request)
+        return result
+    }
+
+    /**
+     * Counts updates handed to the listener of [request] and removes it once it doesn't wait for more.
+     */
+    @Synchronized
+    fun onDispatched(request: LocationRequestInternal, generation: Int, count: Int) {
+        if (!contains(request)) return
+        if (request.onDispatched(generation, count)) unregister(request)
+    }
+
+    /**
+     * Returns updates dropped from the delivery queue of [request] to its pending updates.
+     */
+    @Synchronized
+    fun onDropped(request: LocationRequestInternal, generation: Int, count: Int) {
+        if (!contains(request)) return
+        request.onDropped(generation, count)
+        reindex(request)
+    }
+
+    /**
+     * @return All requests. The array is shared and only recreated when requests are added or removed.
+     */
+    @Synchronized
+    fun snapshot(): Array<LocationRequestInternal> =
+            snapshot ?: byKey.values.toTypedArray().also { snapshot = it }
+
+    private fun addListener(request: LocationRequestInternal) {
+        byListener.getOrPut(request.listener.asBinder()) { HashSet() }.add(request)
+    }
+
+    private fun removeListener(request: LocationRequestInternal) {
+        val binder = request.listener.asBinder()
+        val set = byListener[binder] ?: return
+        set.remove(request)
+        if (set.isEmpty()) {
+            byListener.remove(binder)
+            onListenerRemoved(binder)
+        }
+    }
+
+    private fun index(request: LocationRequestInternal) {
+        val pending = request.updatesPending > 0 && !request.passive
+        request.indexedInterval = if (pending && request.interval > 0) request.interval else 0
+        request.indexedAccuracy = if (pending && request.accuracy > 0) request.accuracy else 0f
+        request.indexedSingleUpdate = pending && request.interval == 0L && request.updatesPending == 1
+        index.add(request.indexedInterval, request.indexedAccuracy, request.indexedSingleUpdate)
+    }
+
+    private fun reindex(request: LocationRequestInternal) {
+        unindex(request)
+        index(request)
+    }
+
+    private fun unindex(request: LocationRequestInternal) {
+        index.remove(request.indexedInterval, request.indexedAccuracy, request.indexedSingleUpdate)
+        request.indexedInterval = 0
+        request.indexedAccuracy = 0f
+        request.indexedSingleUpdate = false
+    }
+}
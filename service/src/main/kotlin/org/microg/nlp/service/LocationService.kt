@@ -5,7 +5,6 @@
 
 package org.microg.nlp.service
 
-import android.app.ActivityManager
 import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
@@ -14,6 +13,7 @@ import android.content.IntentFilter
 import android.content.pm.PackageManager.PERMISSION_GRANTED
 import android.location.Location
 import android.os.Bundle
+import android.os.DeadObjectException
 import android.os.IBinder
 import android.os.SystemClock
 import android.util.Log
@@ -21,18 +21,26 @@ import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.LifecycleService
 import androidx.lifecycle.lifecycleScope
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import org.microg.nlp.fusion.LocationUpdateScheduler
+import org.microg.nlp.fusion.MetricsRegistry
 import org.microg.nlp.service.api.*
 import org.microg.nlp.service.api.Constants.*
+import java.io.File
 import java.io.FileDescriptor
 import java.io.PrintWriter
 import java.util.*
 import kotlin.collections.ArrayList
+import kotlin.math.cos
 import kotlin.math.max
-import kotlin.math.min
 
 private const val TAG = "LocationService"
 private const val MIN_LOCATION_INTERVAL = 2500L
+private const val MAX_BATCH_SIZE = 64
+private const val LAST_LOCATION_FILE = "last_location"
+private const val LAST_LOCATION_SAVE_INTERVAL = 10000L
+private const val EARTH_RADIUS = 6371009.0
 
 class LocationService : LifecycleService() {
     private lateinit var service: LocationServiceImpl
@@ -79,29 +87,157 @@ class LocationRequestInternal(private var request: LocationRequest, private val
         get() = request.interval
     val numUpdates: Int
         get() = request.numUpdates
+    val accuracy: Float
+        get() = request.accuracy
+    val maxWaitTime: Long
+        get() = request.maxWaitTime
+    val passive: Boolean
+        get() = request.passive
+    val minDisplacementMeters: Float
+        get() = request.minDisplacementMeters
+    val minAccuracyImprovement: Float
+        get() = request.minAccuracyImprovement
+    /**
+     * Number of updates handed to the listener.
+     */
     var updatesDelivered: Int = 0
         private set
+
+    /**
+     * Number of updates batched or queued for delivery, but not handed to the listener yet.
+     */
+    var updatesQueued: Int = 0
+        private set
+
+    /**
+     * Number of updates this request still waits for, not counting those queued for delivery.
+     */
     val updatesPending: Int
-        get() = (numUpdates - updatesDelivered).coerceAtLeast(0)
+        get() = (numUpdates - updatesDelivered - updatesQueued).coerceAtLeast(0)
+
+    /**
+     * Incremented whenever the request is replaced, so deliveries queued before are not counted against it.
+     */
+    var generation: Int = 0
+        private set
     val listener: ILocationListener
         get() = request.listener
     val source: String
         get() = extras.getString("source") ?: "<none>"
 
-    fun report(context: Context, location: Location) {
+    /**
+     * Set once the request was removed, deliveries still queued for it are skipped.
+     */
+    @Volatile
+    var cancelled: Boolean = false
+        internal set
+
+    internal var indexedInterval: Long = 0
+    internal var indexedAccuracy: Float = 0f
+    internal var indexedSingleUpdate: Boolean = false
+
+    private var batch: ArrayList<Location>? = null
+    private var batchStart: Long = 0
+
+    private var lastLatitude: Double = Double.NaN
+    private var lastLongitude: Double = 0.0
+    private var lastCosLatitude: Double = 1.0
+    private var lastAccuracy: Float = 0f
+
+    /**
+     * @return Whether [location] passes the displacement and accuracy filters of this request, based on an
+     * equirectangular approximation around the last delivered location. A location passes if it improved the accuracy
+     * by [minAccuracyImprovement] or moved by [minDisplacementMeters], plus the accuracy it lost if it is less accurate.
+     */
+    @Synchronized
+    fun accepts(location: Location): Boolean {
+        if (lastLatitude.isNaN()) return true
+        if (minAccuracyImprovement > 0 && lastAccuracy - location.accuracy >= minAccuracyImprovement) return true
+        if (minDisplacementMeters <= 0) return minAccuracyImprovement <= 0
+        val dLat = Math.toRadians(location.latitude - lastLatitude)
+        var dLon = location.longitude - lastLongitude
+        if (dLon > 180) dLon -= 360 else if (dLon < -180) dLon += 360
+        val x = Math.toRadians(dLon) * lastCosLatitude
+        val threshold = (minDisplacementMeters + max(0f, location.accuracy - lastAccuracy)) / EARTH_RADIUS
+        return x * x + dLat * dLat >= threshold * threshold
+    }
+
+    /**
+     * Queues [location] for delivery to the listener of this request. If the request allows waiting longer than its
+     * interval, the location is added to a batch instead, which is delivered once it is full, the request doesn't wait
+     * for more updates or the first location in it waited [maxWaitTime].
+     *
+     * @return Whether a new batch was started, which has to be flushed using [flushIfDue] after [maxWaitTime].
+     */
+    @Synchronized
+    fun report(permissions: PermissionCache, deliveries: LocationDeliveryQueues, location: Location): Boolean {
         if (updatesPending <= 0) throw IllegalStateException("Not waiting for updates")
-        if (context.checkPermission("android.permission.ACCESS_COARSE_LOCATION", callingPid, callingUid) != PERMISSION_GRANTED) throw SecurityException("No permission to access location")
-        listener.onLocation(STATUS_OK, location)
-        updatesDelivered++
+        if (permissions.checkPermission("android.permission.ACCESS_COARSE_LOCATION", callingPid, callingUid) != PERMISSION_GRANTED) throw SecurityException("No permission to access location")
+        updatesQueued++
+        if (location.latitude != lastLatitude) lastCosLatitude = cos(Math.toRadians(location.latitude))
+        lastLatitude = location.latitude
+        lastLongitude = location.longitude
+        lastAccuracy = location.accuracy
+        if (maxWaitTime <= interval && batch == null) {
+            deliveries.enqueue(this, location)
+            return false
+        }
+        val now = SystemClock.elapsedRealtime()
+        val batch = batch ?: ArrayList<Location>().also { batch = it; batchStart = now }
+        batch.add(location)
+        if (updatesPending <= 0 || batch.size >= MAX_BATCH_SIZE || now - batchStart >= maxWaitTime) {
+            flush(deliveries)
+            return false
+        }
+        return batch.size == 1
     }
 
-    fun matches(other: LocationRequestInternal): Boolean {
-        if (id == other.id && callingPid == other.callingPid) return true
-        return false
+    /**
+     * Delivers the pending batch if its first location waited [maxWaitTime].
+     */
+    @Synchronized
+    fun flushIfDue(deliveries: LocationDeliveryQueues) {
+        if (batch != null && SystemClock.elapsedRealtime() - batchStart >= maxWaitTime) flush(deliveries)
     }
 
+    private fun flush(deliveries: LocationDeliveryQueues) {
+        val batch = batch ?: return
+        this.batch = null
+        deliveries.enqueueBatch(this, batch)
+    }
+
+    /**
+     * Counts [count] updates of [generation] as delivered.
+     *
+     * @return Whether the request doesn't wait for more updates.
+     */
+    @Synchronized
+    fun onDispatched(generation: Int, count: Int): Boolean {
+        if (generation == this.generation) {
+            updatesQueued -= count
+            updatesDelivered += count
+        }
+        return updatesDelivered >= numUpdates
+    }
+
+    /**
+     * Returns [count] updates of [generation] that were dropped from the delivery queue to [updatesPending].
+     */
+    @Synchronized
+    fun onDropped(generation: Int, count: Int) {
+        if (generation == this.generation) updatesQueued -= count
+    }
+
+    /**
+     * Replaces this request with [requestInternal], which has the same id and calling process.
+     */
+    @Synchronized
     fun adopt(requestInternal: LocationRequestInternal) {
+        generation++
         updatesDelivered = 0
+        updatesQueued = 0
+        batch = null
+        batchStart = 0
         request = requestInternal.request
         extras.putAll(requestInternal.extras)
     }
@@ -121,77 +257,69 @@ class LocationServiceImpl(private val context: Context, private val lifecycle: L
             fuser.bind()
         }
     }
-    private val requests = arrayListOf<LocationRequestInternal>()
+    private val deliveries = LocationDeliveryQueues(SerialDispatcher.deliveries, callback = object : LocationDeliveryQueues.Callback {
+        override fun onFailure(listener: ILocationListener, e: Exception) {
+            Log.w(TAG, "Removing requests due to error: ", e)
+            if (e is DeadObjectException) requests.snapshot().filter { it.listener.asBinder() == listener.asBinder() }.forEach { packageResolver.invalidatePid(it.callingPid) }
+            requests.removeByListener(listener)
+            updateLocationInterval()
+        }
+
+        override fun onDelivered(request: LocationRequestInternal, generation: Int, count: Int) {
+            requests.onDispatched(request, generation, count)
+        }
+
+        override fun onDropped(request: LocationRequestInternal, generation: Int, count: Int) {
+            requests.onDropped(request, generation, count)
+            updateLocationInterval()
+        }
+    })
+    private val requests = LocationRequestRegistry { deliveries.remove(it) }
+    private val permissions = PermissionCache.getInstance(context)
+    private val packageResolver = CallingPackageResolver.getInstance(context)
     private val fuser = LocationFuser(context, lifecycle, this)
+    private val store = LastLocationStore(File(context.filesDir, LAST_LOCATION_FILE))
     private var lastLocation: Location? = null
+    private var lastSaveTime: Long = 0
     private var interval: Long = 0
-    private val timer: Timer = Timer("location-requests")
-    private var timerTask: TimerTask? = null
-    private var lastTime: Long = 0
+    private val scheduler = LocationUpdateScheduler(MIN_LOCATION_INTERVAL, SystemClock::elapsedRealtime) {
+        fuser.update()
+        Log.d(TAG, "Triggered update")
+    }
 
     init {
+        store.load()?.let {
+            Log.d(TAG, "Restored last location ${it.fused} and ${it.backends.size} backend locations")
+            lastLocation = it.fused
+            fuser.restoreBackendLocations(it.backends)
+        }
         lifecycleScope.launchWhenStarted {
             Log.d(TAG, "Preparing LocationFuser...")
             fuser.reset()
-            fuser.bind()
-            fuser.update()
             Log.d(TAG, "Finished preparing LocationFuser")
             context.registerReceiver(packageReceiver, packageFilter)
         }
+        scheduler.start { round -> lifecycleScope.launchWhenStarted { round() } }
     }
 
     private fun updateLocationInterval() {
-        var interval: Long = Long.MAX_VALUE
-        var requestNow = false
-        synchronized(requests) {
-            for (request in requests) {
-                if (request.interval == 0L && request.updatesPending == 1) requestNow = true
-                if (request.interval <= 0 || request.updatesPending <= 0) continue
-                interval = min(interval, request.interval)
-            }
-        }
-        interval = max(interval, MIN_LOCATION_INTERVAL)
-
-        if (this.interval == interval) return
-        this.interval = interval
-
-        synchronized(timer) {
-            timerTask?.cancel()
-            timerTask = null
+        val interval = max(requests.minInterval, MIN_LOCATION_INTERVAL)
+        val requestNow = requests.hasSingleUpdate
+        fuser.requiredAccuracy = requests.minAccuracy
+        fuser.setActive(interval < Long.MAX_VALUE || requestNow)
 
+        if (this.interval != interval) {
+            this.interval = interval
             if (interval < Long.MAX_VALUE) {
                 Log.d(TAG, "Set merged location interval to $interval")
-
-                val timerTask = object : TimerTask() {
-                    override fun run() {
-                        lifecycleScope.launchWhenStarted {
-                            lastTime = SystemClock.elapsedRealtime()
-                            fuser.update()
-                            Log.d(TAG, "Triggered update")
-                        }
-                    }
-                }
-                val delay = if (requestNow) {
-                    0
-                } else {
-                    (interval - (SystemClock.elapsedRealtime() - lastTime)).coerceIn(0, interval)
-                }
-                timer.scheduleAtFixedRate(timerTask, delay, interval)
-                this.timerTask = timerTask
             } else {
                 Log.d(TAG, "Disable location updates")
             }
         }
+        scheduler.setInterval(interval, requestNow)
     }
 
-    private fun getCallingPackage(): String? {
-        val manager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
-        val callingPid = getCallingPid()
-        if (manager != null && callingPid > 0) {
-            manager.runningAppProcesses.find { it.pid == callingPid }?.pkgList?.firstOrNull()?.let { return it }
-        }
-        return context.packageManager.getPackagesForUid(getCallingUid())?.firstOrNull()
-    }
+    private fun getCallingPackage(): String? = packageResolver.getCallingPackage(getCallingPid(), getCallingUid())
 
     private fun processOptions(options: Bundle?): Bundle {
         val options = options ?: Bundle()
@@ -201,7 +329,7 @@ class LocationServiceImpl(private val context: Context, private val lifecycle: L
             options.putString("packageName", callingPackage)
         } else if (context.checkCallingPermission("org.microg.nlp.SERVICE_ADMIN") != PERMISSION_GRANTED && context.packageName != callingPackage) {
             val claimedPackageName = options.getString("packageName")
-            if (context.packageManager.getPackagesForUid(getCallingUid())?.any { it == claimedPackageName } != true) {
+            if (packageResolver.getPackagesForUid(getCallingPid(), getCallingUid())?.any { it == claimedPackageName } != true) {
                 Log.d(TAG, "$callingPackage invalidly claimed package name $claimedPackageName, ignoring")
                 options.putString("packageName", callingPackage)
             }
@@ -212,7 +340,7 @@ class LocationServiceImpl(private val context: Context, private val lifecycle: L
     }
 
     private fun Bundle.checkPermission(permission: String): Int {
-        return context.checkPermission(permission, getInt("callingPid"), getInt("callingUid"))
+        return permissions.checkPermission(permission, getInt("callingPid"), getInt("callingUid"))
     }
 
     override fun getLastLocation(listener: ILocationListener?, options: Bundle?) {
@@ -245,10 +373,7 @@ class LocationServiceImpl(private val context: Context, private val lifecycle: L
                 return@launchWhenStarted callback.onStatus(STATUS_PERMISSION_ERROR)
             if (request == null)
                 return@launchWhenStarted callback.onStatus(STATUS_INVALID_ARGS)
-            val requestInternal = LocationRequestInternal(request, extras)
-            synchronized(requests) {
-                requests.find { it.matches(requestInternal) }?.adopt(requestInternal) ?: requests.add(requestInternal)
-            }
+            requests.put(LocationRequestInternal(request, extras))
             updateLocationInterval()
             callback.onStatus(STATUS_OK)
         }
@@ -260,9 +385,7 @@ class LocationServiceImpl(private val context: Context, private val lifecycle: L
         lifecycleScope.launchWhenStarted {
             if (listener == null)
                 return@launchWhenStarted callback.onStatus(STATUS_INVALID_ARGS)
-            synchronized(requests) {
-                requests.removeAll { it.listener == listener }
-            }
+            requests.removeByListener(listener)
             updateLocationInterval()
             callback.onStatus(STATUS_OK)
         }
@@ -274,9 +397,7 @@ class LocationServiceImpl(private val context: Context, private val lifecycle: L
         lifecycleScope.launchWhenStarted {
             if (id == null)
                 return@launchWhenStarted callback.onStatus(STATUS_INVALID_ARGS)
-            synchronized(requests) {
-                requests.removeAll { it.id == id && it.callingPid == extras.getInt("callingPid") }
-            }
+            requests.removeById(id, extras.getInt("callingPid"))
             updateLocationInterval()
             callback.onStatus(STATUS_OK)
         }
@@ -330,41 +451,91 @@ class LocationServiceImpl(private val context: Context, private val lifecycle: L
         }
     }
 
+    override fun getLocationBackendStates(callback: IStringsCallback?, options: Bundle?) {
+        val extras = processOptions(options)
+        if (callback == null || extras.getString("packageName") == null) return
+        lifecycleScope.launchWhenStarted {
+            if (extras.checkPermission("org.microg.nlp.SERVICE_ADMIN") != PERMISSION_GRANTED)
+                return@launchWhenStarted callback.onStrings(STATUS_PERMISSION_ERROR, null)
+            callback.onStrings(STATUS_OK, fuser.getBackendStates())
+        }
+    }
+
+    override fun getMetrics(callback: IStringsCallback?, options: Bundle?) {
+        val extras = processOptions(options)
+        if (callback == null || extras.getString("packageName") == null) return
+        lifecycleScope.launchWhenStarted {
+            if (extras.checkPermission("org.microg.nlp.SERVICE_ADMIN") != PERMISSION_GRANTED)
+                return@launchWhenStarted callback.onStrings(STATUS_PERMISSION_ERROR, null)
+            callback.onStrings(STATUS_OK, MetricsRegistry.location.export())
+        }
+    }
+
+    override fun setLocationTrace(enabled: Boolean, callback: IStatusCallback?, options: Bundle?) {
+        val extras = processOptions(options)
+        if (callback == null || extras.getString("packageName") == null) return
+        lifecycleScope.launchWhenStarted {
+            if (extras.checkPermission("org.microg.nlp.SERVICE_ADMIN") != PERMISSION_GRANTED)
+                return@launchWhenStarted callback.onStatus(STATUS_PERMISSION_ERROR)
+            Preferences(context).locationTrace = enabled
+            fuser.recorder.setEnabled(enabled)
+            callback.onStatus(STATUS_OK)
+        }
+    }
+
     override fun reportLocation(location: Location) {
         val newLocation = Location(location)
         if (!newLocation.isValid) return
         this.lastLocation = newLocation
-        val requestsToDelete = hashSetOf<LocationRequestInternal>()
-        synchronized(requests) {
-            for (request in ArrayList(requests)) {
-                try {
-                    request.report(context, newLocation)
-                    if (request.updatesPending <= 0) requestsToDelete.add(request)
-                } catch (e: Exception) {
-                    Log.w(TAG, "Removing request due to error: ", e)
-                    requestsToDelete.add(request)
-                }
+        val now = SystemClock.elapsedRealtime()
+        if (now - lastSaveTime >= LAST_LOCATION_SAVE_INTERVAL) {
+            lastSaveTime = now
+            store.save(newLocation, fuser.getBackendLocations())
+        }
+        for (request in requests.snapshot()) {
+            if (!request.accepts(newLocation)) continue
+            try {
+                if (requests.report(request) { it.report(permissions, deliveries, newLocation) }) scheduleFlush(request)
+            } catch (e: Exception) {
+                Log.w(TAG, "Removing request due to error: ", e)
+                requests.remove(request)
             }
-            requests.removeAll(requestsToDelete)
         }
         updateLocationInterval()
     }
 
+    private fun scheduleFlush(request: LocationRequestInternal) {
+        lifecycleScope.launch {
+            delay(request.maxWaitTime)
+            requests.report(request) { it.flushIfDue(deliveries); false }
+        }
+    }
+
     fun dump(writer: PrintWriter?) {
         writer?.println("last location: $lastLocation")
         writer?.println("interval: $interval")
-        synchronized(requests) {
-            writer?.println("${requests.size} requests:")
-            for (request in requests) {
-                writer?.println("  ${request.id} package=${request.packageName} source=${request.source} interval=${request.interval} pending=${request.updatesPending}")
-            }
+        val requests = requests.snapshot()
+        writer?.println("${requests.size} requests:")
+        for (request in requests) {
+            writer?.println("  ${request.id} package=${request.packageName} source=${request.source} interval=${request.interval} maxWait=${request.maxWaitTime} passive=${request.passive} minDisplacement=${request.minDisplacementMeters} pending=${request.updatesPending} queued=${request.updatesQueued} delivered=${request.updatesDelivered}")
         }
+        deliveries.dump(writer)
+        scheduler.dump(writer)
         fuser.dump(writer)
+        store.dump(writer)
+        permissions.dump(writer)
+        packageResolver.dump(writer)
+        SerialDispatcher.backends.dump(writer)
+        SerialDispatcher.deliveries.dump(writer)
+        MetricsRegistry.location.dump(writer)
     }
 
     fun destroy() {
+        scheduler.stop()
         context.unregisterReceiver(packageReceiver)
+        lastLocation?.let { store.save(it, fuser.getBackendLocations()) }
         fuser.destroy()
+        store.force()
     }
 
     override fun getLifecycle(): Lifecycle = lifecycle
@@ -0,0 +1,102 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.Intent.*
+import android.content.IntentFilter
+import android.os.SystemClock
+import org.microg.nlp.fusion.MetricsRegistry
+import java.io.PrintWriter
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Caches the results of [Context.checkPermission] per permission, pid and uid.
+ *
+ * Entries expire after [TTL] milliseconds and are dropped when a package of the uid changes. Revoking a runtime
+ * permission kills the affected process, so its pid is not reused for the same uid while the entry is alive. Only the
+ * shared instance of [getInstance] listens for package changes.
+ */
+class PermissionCache internal constructor(private val context: Context) {
+    private data class Key(val permission: String, val pid: Int, val uid: Int)
+    private class Entry(val result: Int, val expires: Long)
+
+    private val entries = ConcurrentHashMap<Key, Entry>()
+    private val hits = MetricsRegistry.location.counter("permissions.hits")
+    private val misses = MetricsRegistry.location.counter("permissions.misses")
+
+    private val receiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context?, intent: Intent?) {
+            val uid = intent?.getIntExtra(EXTRA_UID, -1) ?: -1
+            if (uid < 0) invalidate() else invalidateUid(uid)
+        }
+    }
+
+    /**
+     * Whether decisions are cached, only turned off to measure the cache.
+     */
+    @Volatile
+    internal var enabled = true
+
+    fun checkPermission(permission: String, pid: Int, uid: Int): Int {
+        if (!enabled) return context.checkPermission(permission, pid, uid)
+        val key = Key(permission, pid, uid)
+        val now = SystemClock.elapsedRealtime()
+        val entry = entries[key]
+        if (entry != null && entry.expires > now) {
+            hits.increment()
+            return entry.result
+        }
+        misses.increment()
+        val result = context.checkPermission(permission, pid, uid)
+        if (entries.size >= MAX_ENTRIES) entries.clear()
+        entries[key] = Entry(result, now + TTL)
+        return result
+    }
+
+    fun invalidate() {
+        entries.clear()
+    }
+
+    fun invalidateUid(uid: Int) {
+        entries.keys.removeAll { it.uid == uid }
+    }
+
+    fun dump(writer: PrintWriter?) {
+        writer?.println("permission cache: entries=${entries.size} hits=${hits.count} misses=${misses.count}")
+    }
+
+    companion object {
+        /**
+         * Time in milliseconds a permission decision is cached.
+         */
+        const val TTL = 10000L
+        private const val MAX_ENTRIES = 1024
+
+        @Volatile
+        private var instance: PermissionCache? = null
+
+        /**
+         * @return The cache shared by all services of this process.
+         */
+        fun getInstance(context: Context): PermissionCache = instance ?: synchronized(this) {
+            instance ?: PermissionCache(context.applicationContext ?: context).also {
+                it.context.registerReceiver(it.receiver, IntentFilter().apply {
+                    addAction(ACTION_PACKAGE_ADDED)
+                    addAction(ACTION_PACKAGE_CHANGED)
+                    addAction(ACTION_PACKAGE_REMOVED)
+                    addAction(ACTION_PACKAGE_REPLACED)
+                    addAction(ACTION_PACKAGE_RESTARTED)
+                    addDataScheme("package")
+                })
+                it.context.registerReceiver(it.receiver, IntentFilter(ACTION_UID_REMOVED))
+                instance = it
+            }
+        }
+    }
+}
@@ -102,9 +102,51 @@ class Preferences(private val context: Context) {
             preferences.edit().putStringSetCompat(PREF_GEOCODER_BACKENDS, backends).apply()
         }
 
+    /**
+     * Time in milliseconds a location update round waits for each backend.
+     */
+    var locationUpdateDeadline: Long
+        get() = preferences.getLong(PREF_LOCATION_UPDATE_DEADLINE, DEFAULT_LOCATION_UPDATE_DEADLINE)
+        set(deadline) {
+            preferences.edit().putLong(PREF_LOCATION_UPDATE_DEADLINE, deadline).apply()
+        }
+
+    /**
+     * Number of backend results after which a location update round is finished early, 0 to wait for all backends.
+     */
+    var locationUpdateQuorum: Int
+        get() = preferences.getInt(PREF_LOCATION_UPDATE_QUORUM, 0)
+        set(quorum) {
+            preferences.edit().putInt(PREF_LOCATION_UPDATE_QUORUM, quorum).apply()
+        }
+
+    /**
+     * Time in milliseconds backends stay bound after the last location request ended.
+     */
+    var backendIdleTimeout: Long
+        get() = preferences.getLong(PREF_BACKEND_IDLE_TIMEOUT, DEFAULT_BACKEND_IDLE_TIMEOUT)
+        set(timeout) {
+            preferences.edit().putLong(PREF_BACKEND_IDLE_TIMEOUT, timeout).apply()
+        }
+
+    /**
+     * Whether backend results are recorded to a trace file.
+     */
+    var locationTrace: Boolean
+        get() = preferences.getBoolean(PREF_LOCATION_TRACE, false)
+        set(enabled) {
+            preferences.edit().putBoolean(PREF_LOCATION_TRACE, enabled).apply()
+        }
+
     companion object {
         private const val PREFERENCES_NAME = "unified_nlp"
         private const val PREF_LOCATION_BACKENDS = "location_backends"
         private const val PREF_GEOCODER_BACKENDS = "geocoder_backends"
+        private const val PREF_LOCATION_UPDATE_DEADLINE = "location_update_deadline"
+        private const val PREF_LOCATION_UPDATE_QUORUM = "location_update_quorum"
+        private const val PREF_BACKEND_IDLE_TIMEOUT = "backend_idle_timeout"
+        private const val PREF_LOCATION_TRACE = "location_trace"
+        const val DEFAULT_LOCATION_UPDATE_DEADLINE = 5000L
+        const val DEFAULT_BACKEND_IDLE_TIMEOUT = 60000L
     }
 }
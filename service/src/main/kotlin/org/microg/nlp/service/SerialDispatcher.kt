@@ -0,0 +1,224 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeout
+import java.io.PrintWriter
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.max
+
+/**
+ * Bounded thread pool that hands out serial lanes.
+ *
+ * Tasks submitted to the same lane run one after another in submission order, tasks of different lanes run in
+ * parallel on at most [maxThreads] threads. Idle threads are released after a few seconds.
+ *
+ * Binder calls can not be interrupted, so a call that hangs keeps its thread. Callers that gave up waiting for a task
+ * [abandon][Call.abandon] it or [detach][Lane.detach] its lane: the pool then gets an additional thread for as long as
+ * the task keeps running, and a detached lane runs its further tasks on a thread of its own.
+ */
+class SerialDispatcher(private val name: String, val maxThreads: Int) {
+    private val threadCount = AtomicInteger()
+    private val pending = AtomicInteger()
+    private val lanes = AtomicInteger()
+    private val detachedLanes = AtomicInteger()
+    private val abandonedCalls = AtomicInteger()
+    private val executor = ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue(),
+            ThreadFactory { Thread(it, "$name-${threadCount.incrementAndGet()}") }).apply { allowCoreThreadTimeOut(true) }
+
+    /**
+     * Number of tasks submitted but not yet finished.
+     */
+    val queueDepth: Int
+        get() = pending.get()
+
+    /**
+     * Number of threads currently running a task.
+     */
+    val activeThreads: Int
+        get() = executor.activeCount
+
+    /**
+     * Number of threads currently alive.
+     */
+    val threads: Int
+        get() = executor.poolSize
+
+    /**
+     * Creates a new lane, which should be [closed][Lane.close] once it is no longer used. [name] is used in the
+     * messages of timeouts.
+     */
+    @JvmOverloads
+    fun newLane(name: String = this.name): Lane {
+        lanes.incrementAndGet()
+        return Lane(name)
+    }
+
+    /**
+     * Runs [task] on the pool without any ordering guarantee.
+     */
+    fun execute(task: Runnable): Call {
+        pending.incrementAndGet()
+        return Call(task).also { executor.execute(it) }
+    }
+
+    fun dump(writer: PrintWriter?) {
+        writer?.println("$name: lanes=${lanes.get()} detached=${detachedLanes.get()} queue=$queueDepth active=$activeThreads threads=$threads (max $maxThreads+${abandonedCalls.get()} abandoned, peak ${executor.largestPoolSize}) completed=${executor.completedTaskCount}")
+    }
+
+    /**
+     * Grows or shrinks the pool by [delta] threads.
+     */
+    @Synchronized
+    private fun resize(delta: Int) {
+        abandonedCalls.addAndGet(delta)
+        val size = executor.maximumPoolSize + delta
+        if (delta > 0) {
+            executor.maximumPoolSize = size
+            executor.corePoolSize = size
+        } else {
+            executor.corePoolSize = size
+            executor.maximumPoolSize = size
+        }
+    }
+
+    /**
+     * A task submitted to the pool.
+     */
+    inner class Call internal constructor(private val task: Runnable, private val onFinished: (() -> Unit)? = null) : Runnable {
+        private var finished = false
+        private var abandoned = false
+
+        override fun run() {
+            try {
+                task.run()
+            } finally {
+                pending.decrementAndGet()
+                synchronized(this) {
+                    finished = true
+                    if (abandoned) resize(-1)
+                }
+                onFinished?.invoke()
+            }
+        }
+
+        /**
+         * Gives the pool an additional thread until this task finished, as no one waits for it anymore.
+         */
+        @Synchronized
+        fun abandon() {
+            if (finished || abandoned) return
+            abandoned = true
+            resize(1)
+        }
+    }
+
+    inner class Lane internal constructor(val name: String) : Executor {
+        private val tasks = ArrayDeque<Runnable>()
+        private val mutex = Mutex()
+        private var current: Call? = null
+        private var detached: ThreadPoolExecutor? = null
+        private var closed = false
+
+        @Synchronized
+        override fun execute(command: Runnable) {
+            pending.incrementAndGet()
+            tasks.offer(command)
+            if (current == null) scheduleNext()
+        }
+
+        @Synchronized
+        private fun scheduleNext() {
+            val next = tasks.poll()
+            if (next == null) {
+                current = null
+                return
+            }
+            val call = Call(next) { scheduleNext() }
+            current = call
+            (detached ?: executor).execute(call)
+        }
+
+        /**
+         * Runs [action] on this lane and suspends until it finished. Only one such call runs at a time.
+         *
+         * The call is released when the deadline is hit or the calling coroutine is cancelled, even though a binder call
+         * itself can not be interrupted. A call that was cancelled before it was dispatched is skipped. On timeout, the
+         * lane is [detached][detach], so the hanging call does not block other lanes.
+         *
+         * @throws TimeoutException if [action] did not finish within [timeout] milliseconds.
+         */
+        suspend fun <T> call(timeout: Long, action: () -> T): T = mutex.withLock {
+            try {
+                withTimeout(timeout) {
+                    suspendCancellableCoroutine<T> { continuation ->
+                        execute {
+                            if (!continuation.isActive) return@execute
+                            val result = try {
+                                Result.success(action())
+                            } catch (e: Exception) {
+                                Result.failure<T>(e)
+                            }
+                            continuation.resumeWith(result)
+                        }
+                    }
+                }
+            } catch (e: TimeoutCancellationException) {
+                detach()
+                throw TimeoutException("$name did not answer within ${timeout}ms")
+            }
+        }
+
+        /**
+         * Moves this lane off the shared pool, after a task of it did not finish in time. The running task is
+         * [abandoned][Call.abandon], later tasks run on a thread of the lane's own.
+         */
+        @Synchronized
+        fun detach() {
+            current?.abandon()
+            if (detached != null) return
+            detachedLanes.incrementAndGet()
+            detached = ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue(),
+                    ThreadFactory { Thread(it, "${this@SerialDispatcher.name}-detached-${threadCount.incrementAndGet()}") }).apply { allowCoreThreadTimeOut(true) }
+        }
+
+        /**
+         * Releases this lane. Tasks already submitted still run.
+         */
+        @Synchronized
+        fun close() {
+            if (closed) return
+            closed = true
+            lanes.decrementAndGet()
+            if (detached != null) detachedLanes.decrementAndGet()
+        }
+    }
+
+    companion object {
+        private const val KEEP_ALIVE_SECONDS = 5L
+
+        /**
+         * Dispatcher shared by all location and geocoder backend connections of this process.
+         */
+        val backends: SerialDispatcher by lazy { SerialDispatcher("backend-dispatcher", max(4, Runtime.getRuntime().availableProcessors())) }
+
+        /**
+         * Dispatcher delivering locations to the listeners of location requests.
+         */
+        val deliveries: SerialDispatcher by lazy { SerialDispatcher("location-delivery", 2) }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.content.Context
+import android.location.Location
+import android.os.SystemClock
+import android.util.Log
+import org.microg.nlp.fusion.Fix
+import org.microg.nlp.fusion.TraceEvent
+import org.microg.nlp.fusion.TraceWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.PrintWriter
+
+private const val TAG = "TraceRecorder"
+
+/**
+ * Appends every backend result to a trace file, for replaying it offline with the trace classes of fusion-core.
+ *
+ * There is a single recorder per process, so the results of all fusers end up in one session of one file. It records
+ * while it is enabled and at least one fuser is registered.
+ *
+ * Results are timestamped when they arrive and written on a lane of the backend dispatcher. Recording stops once the
+ * file reached [MAX_SIZE], the file must be removed to record again.
+ */
+class TraceRecorder private constructor(private val file: File) {
+    private val lane = SerialDispatcher.backends.newLane()
+    private val owners = HashSet<Any>()
+    private var enabled: Boolean = false
+    private var writer: TraceWriter? = null
+    private var initialSize: Long = 0
+    @Volatile
+    private var records: Long = 0
+
+    /**
+     * Whether results are currently recorded.
+     */
+    @Volatile
+    var recording: Boolean = false
+        private set
+
+    @Synchronized
+    fun setEnabled(enabled: Boolean) {
+        this.enabled = enabled
+        update()
+    }
+
+    /**
+     * Registers [owner] as user of the recorder until it is passed to [unregister].
+     */
+    @Synchronized
+    fun register(owner: Any) {
+        if (owners.add(owner)) update()
+    }
+
+    @Synchronized
+    fun unregister(owner: Any) {
+        if (owners.remove(owner)) update()
+    }
+
+    private fun update() {
+        val recording = enabled && owners.isNotEmpty()
+        if (this.recording == recording) return
+        this.recording = recording
+        lane.execute { if (recording) open() else close() }
+    }
+
+    /**
+     * Records a result of the backend [component], [location] is null if the backend returned none.
+     */
+    fun record(kind: TraceEvent.Kind, component: String, location: Location?) {
+        if (!recording) return
+        val timestamp = SystemClock.elapsedRealtime()
+        val fix = location?.toFix()
+        lane.execute { write(kind, component, timestamp, fix) }
+    }
+
+    private fun open() {
+        if (writer != null) return
+        initialSize = file.length()
+        if (initialSize >= MAX_SIZE) {
+            Log.w(TAG, "$file is full, not recording")
+            return
+        }
+        try {
+            writer = TraceWriter(FileOutputStream(file, true)).apply {
+                beginSession(System.currentTimeMillis(), SystemClock.elapsedRealtime())
+                flush()
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to open $file", e)
+        }
+    }
+
+    private fun write(kind: TraceEvent.Kind, component: String, timestamp: Long, fix: Fix?) {
+        val writer = writer ?: return
+        try {
+            writer.write(kind, component, timestamp, fix)
+            writer.flush()
+            records++
+            if (initialSize + writer.bytesWritten >= MAX_SIZE) {
+                Log.w(TAG, "$file is full, stopping to record")
+                close()
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to write $file", e)
+            close()
+        }
+    }
+
+    private fun close() {
+        try {
+            writer?.close()
+        } catch (e: Exception) {
+            Log.w(TAG, e)
+        }
+        writer = null
+    }
+
+    @Synchronized
+    fun dump(writer: PrintWriter?) {
+        writer?.println("trace: enabled=$enabled users=${owners.size} recording=$recording file=$file size=${file.length()} records=$records")
+    }
+
+    companion object {
+        /**
+         * Size in bytes up to which a trace file is appended to.
+         */
+        const val MAX_SIZE = 16L * 1024 * 1024
+        private const val TRACE_FILE = "location.trace"
+
+        @Volatile
+        private var instance: TraceRecorder? = null
+
+        /**
+         * @return The recorder shared by all fusers of this process.
+         */
+        fun getInstance(context: Context): TraceRecorder = instance ?: synchronized(this) {
+            instance ?: TraceRecorder(File(context.filesDir, TRACE_FILE)).also { instance = it }
+        }
+    }
+}
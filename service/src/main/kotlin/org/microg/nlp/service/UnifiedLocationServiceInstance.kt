@@ -5,7 +5,6 @@
 
 package org.microg.nlp.service
 
-import android.app.ActivityManager
 import android.content.Context
 import android.content.pm.PackageManager.PERMISSION_GRANTED
 import android.location.Location
@@ -34,14 +33,8 @@ class UnifiedLocationServiceInstance(private val root: UnifiedLocationServiceRoo
             return "$callingPackage for $opPackage"
         }
 
-    private fun Context.getCallingPackage(): String? {
-        val manager = getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
-        val callingPid = getCallingPid()
-        if (manager != null && callingPid > 0) {
-            manager.runningAppProcesses.find { it.pid == callingPid }?.pkgList?.singleOrNull()?.let { return it }
-        }
-        return packageManager.getPackagesForUid(getCallingUid())?.singleOrNull()
-    }
+    private fun Context.getCallingPackage(): String? =
+            CallingPackageResolver.getInstance(this).getCallingPackage(getCallingPid(), getCallingUid()) { it.singleOrNull() }
 
     fun reportLocation(location: Location) {
         try {
@@ -68,6 +68,7 @@ class UnifiedLocationServiceRoot(private val service: UnifiedLocationServiceEntr
         }
         if (instancePid != null) {
             instances.remove(instancePid)
+            CallingPackageResolver.getInstance(service).invalidatePid(instancePid)
         }
     }
 
@@ -90,6 +91,7 @@ class UnifiedLocationServiceRoot(private val service: UnifiedLocationServiceEntr
             sb.append("${instance.callingPackage}:${implInterval}ms")
         }
         interval = max(interval, MIN_LOCATION_INTERVAL)
+        locationFuser.setActive(interval < Long.MAX_VALUE)
 
         if (this.interval == interval) return
         this.interval = interval
@@ -230,6 +232,7 @@ class UnifiedLocationServiceRoot(private val service: UnifiedLocationServiceEntr
         }
         locationFuser.dump(writer)
         geocodeFuser.dump(writer)
+        SerialDispatcher.backends.dump(writer)
     }
 
     companion object {
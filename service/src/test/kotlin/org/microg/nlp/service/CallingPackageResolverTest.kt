@@ -0,0 +1,120 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.app.ActivityManager
+import android.app.ActivityManager.RunningAppProcessInfo
+import android.content.Context
+import android.os.Looper
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.LooperMode
+import java.time.Duration
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [29])
+@LooperMode(LooperMode.Mode.PAUSED)
+class CallingPackageResolverTest {
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val resolver = CallingPackageResolver(context)
+
+    private fun setProcessPackages(pid: Int, vararg packages: String) {
+        val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+        shadowOf(activityManager).setProcesses(listOf(RunningAppProcessInfo("process", pid, arrayOf(*packages))))
+    }
+
+    private fun setUidPackages(vararg packages: String) {
+        shadowOf(context.packageManager).setPackagesForUid(UID, *packages)
+    }
+
+    @Before
+    fun setUp() {
+        setUidPackages("org.example.shared", "org.example.other")
+        setProcessPackages(PID, "org.example.process")
+    }
+
+    @Test
+    fun processPackageIsPreferred() {
+        assertEquals("org.example.process", resolver.getCallingPackage(PID, UID))
+    }
+
+    @Test
+    fun uidPackagesAreFallback() {
+        assertEquals("org.example.shared", resolver.getCallingPackage(PID + 1, UID))
+        assertEquals("org.example.other", resolver.getCallingPackage(PID + 1, UID) { packages -> packages.find { it.endsWith("other") } })
+        assertNull(resolver.getCallingPackage(PID + 1, UID + 1))
+    }
+
+    @Test
+    fun selectAppliesToProcessPackagesFirst() {
+        assertEquals("org.example.other", resolver.getCallingPackage(PID, UID) { packages -> packages.find { it.endsWith("other") } })
+    }
+
+    @Test
+    fun resultsAreCached() {
+        assertArrayEquals(arrayOf("org.example.shared", "org.example.other"), resolver.getPackagesForUid(PID, UID))
+        setUidPackages("org.example.new")
+        setProcessPackages(PID, "org.example.new")
+        assertEquals("org.example.process", resolver.getCallingPackage(PID, UID))
+        assertArrayEquals(arrayOf("org.example.shared", "org.example.other"), resolver.getPackagesForUid(PID, UID))
+    }
+
+    @Test
+    fun entriesExpire() {
+        resolver.getCallingPackage(PID, UID)
+        setProcessPackages(PID, "org.example.new")
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(CallingPackageResolver.TTL - 1))
+        assertEquals("org.example.process", resolver.getCallingPackage(PID, UID))
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1))
+        assertEquals("org.example.new", resolver.getCallingPackage(PID, UID))
+    }
+
+    @Test
+    fun invalidateUidDropsItsEntries() {
+        resolver.getCallingPackage(PID, UID)
+        resolver.getCallingPackage(PID + 1, UID + 1)
+        setProcessPackages(PID, "org.example.new")
+        shadowOf(context.packageManager).setPackagesForUid(UID + 1, "org.example.late")
+        resolver.invalidateUid(UID)
+        assertEquals("org.example.new", resolver.getCallingPackage(PID, UID))
+        assertNull(resolver.getCallingPackage(PID + 1, UID + 1))
+    }
+
+    @Test
+    fun invalidatePidDropsItsEntries() {
+        resolver.getCallingPackage(PID, UID)
+        setProcessPackages(PID, "org.example.new")
+        resolver.invalidatePid(PID + 1)
+        assertEquals("org.example.process", resolver.getCallingPackage(PID, UID))
+        resolver.invalidatePid(PID)
+        assertEquals("org.example.new", resolver.getCallingPackage(PID, UID))
+    }
+
+    @Test
+    fun leastRecentlyUsedEntryIsEvicted() {
+        resolver.getCallingPackage(PID, UID)
+        setProcessPackages(PID, "org.example.new")
+        for (pid in 1 until MAX_ENTRIES) resolver.getCallingPackage(PID + pid, UID)
+        // The cache is full, using the first entry makes the second one the eldest
+        assertEquals("org.example.process", resolver.getCallingPackage(PID, UID))
+        resolver.getCallingPackage(PID + MAX_ENTRIES, UID)
+        assertEquals("org.example.process", resolver.getCallingPackage(PID, UID))
+        for (pid in MAX_ENTRIES + 1..2 * MAX_ENTRIES) resolver.getCallingPackage(PID + pid, UID)
+        assertEquals("org.example.new", resolver.getCallingPackage(PID, UID))
+    }
+
+    companion object {
+        private const val PID = 4000
+        private const val UID = 10100
+        private const val MAX_ENTRIES = 64
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.os.Looper
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.microg.nlp.service.CircuitBreaker.State
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.LooperMode
+import java.time.Duration
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [29])
+@LooperMode(LooperMode.Mode.PAUSED)
+class CircuitBreakerTest {
+    private val breaker = CircuitBreaker(INITIAL_BACKOFF, MAX_BACKOFF, STABLE_PERIOD)
+
+    /**
+     * Advances the simulated clock.
+     */
+    private fun advance(millis: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis))
+    }
+
+    /**
+     * Fails, waits for the backoff and lets the backend bind again.
+     */
+    private fun failAndRetry(): Long {
+        breaker.onFailure()
+        val delay = breaker.retryDelay
+        advance(delay)
+        assertTrue(breaker.allowBind())
+        return delay
+    }
+
+    @Test
+    fun startsClosed() {
+        assertEquals(State.CLOSED, breaker.state)
+        assertTrue(breaker.isClosed)
+        assertTrue(breaker.allowBind())
+        assertEquals(0L, breaker.retryDelay)
+    }
+
+    @Test
+    fun failureOpensUntilBackoffElapsed() {
+        breaker.onFailure()
+        assertEquals(State.OPEN, breaker.state)
+        assertFalse(breaker.isClosed)
+        assertFalse(breaker.allowBind())
+        assertEquals(INITIAL_BACKOFF, breaker.retryDelay)
+
+        advance(INITIAL_BACKOFF - 1)
+        assertFalse(breaker.allowBind())
+        assertEquals(1L, breaker.retryDelay)
+
+        advance(1)
+        assertTrue(breaker.allowBind())
+        assertEquals(State.HALF_OPEN, breaker.state)
+        assertFalse(breaker.isClosed)
+        assertEquals(0L, breaker.retryDelay)
+    }
+
+    @Test
+    fun successfulProbeCloses() {
+        failAndRetry()
+        breaker.onProbeSucceeded()
+        assertEquals(State.CLOSED, breaker.state)
+        assertTrue(breaker.isClosed)
+    }
+
+    @Test
+    fun probeOnlyClosesHalfOpenCircuit() {
+        breaker.onFailure()
+        breaker.onProbeSucceeded()
+        assertEquals(State.OPEN, breaker.state)
+    }
+
+    @Test
+    fun failedProbeOpensAgain() {
+        failAndRetry()
+        breaker.onFailure()
+        assertEquals(State.OPEN, breaker.state)
+        assertFalse(breaker.allowBind())
+    }
+
+    @Test
+    fun backoffDoublesUpToMaximum() {
+        assertEquals(listOf(1000L, 2000L, 4000L, 4000L), List(4) { failAndRetry() })
+        assertEquals(4L, breaker.failures)
+    }
+
+    @Test
+    fun backoffIsResetAfterStablePeriod() {
+        failAndRetry()
+        breaker.onProbeSucceeded()
+        advance(STABLE_PERIOD - 1)
+        // Failed again before it was stable
+        assertEquals(2000L, failAndRetry())
+        breaker.onProbeSucceeded()
+        advance(STABLE_PERIOD)
+        assertEquals(INITIAL_BACKOFF, failAndRetry())
+        assertEquals(3L, breaker.failures)
+    }
+
+    companion object {
+        private const val INITIAL_BACKOFF = 1000L
+        private const val MAX_BACKOFF = 4000L
+        private const val STABLE_PERIOD = 10000L
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.location.Location
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+import java.io.RandomAccessFile
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [29])
+class LastLocationStoreTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val file: File by lazy { File(folder.root, "last-location") }
+
+    private fun location(latitude: Double, time: Long = TIME) = Location("test").apply {
+        this.latitude = latitude
+        longitude = 13.405
+        accuracy = 25f
+        this.time = time
+    }
+
+    private fun reload(): LastLocationStore.Snapshot? = LastLocationStore(file).load()
+
+    /**
+     * Flips a byte in [slot] of the file, like a write torn by a crash.
+     */
+    private fun corrupt(slot: Int) {
+        RandomAccessFile(file, "rw").use {
+            val position = slot * SLOT_SIZE + 20L
+            it.seek(position)
+            val value = it.read()
+            it.seek(position)
+            it.write(value xor 0xff)
+        }
+    }
+
+    @Test
+    fun emptyFileHasNoRecord() {
+        assertNull(LastLocationStore(file).load())
+    }
+
+    @Test
+    fun savedLocationsAreLoaded() {
+        val store = LastLocationStore(file)
+        store.load()
+        store.save(location(52.52), mapOf("a/.A" to location(52.0), "b/.B" to location(53.0, TIME - 1000)))
+
+        val snapshot = reload()!!
+        val fused = snapshot.fused!!
+        assertEquals(52.52, fused.latitude, 0.0)
+        assertEquals(13.405, fused.longitude, 0.0)
+        assertEquals(25f, fused.accuracy, 0f)
+        assertEquals(TIME, fused.time)
+        assertEquals(setOf(LastLocationStore.keyOf("a/.A"), LastLocationStore.keyOf("b/.B")), snapshot.backends.keys)
+        assertEquals(52.0, snapshot.backends[LastLocationStore.keyOf("a/.A")]!!.latitude, 0.0)
+        assertEquals(TIME - 1000, snapshot.backends[LastLocationStore.keyOf("b/.B")]!!.time)
+    }
+
+    @Test
+    fun missingFusedLocationIsNull() {
+        val store = LastLocationStore(file)
+        store.load()
+        store.save(null, mapOf("a/.A" to location(52.0)))
+        val snapshot = reload()!!
+        assertNull(snapshot.fused)
+        assertEquals(1, snapshot.backends.size)
+    }
+
+    @Test
+    fun newestRecordIsLoaded() {
+        val store = LastLocationStore(file)
+        store.load()
+        for (i in 1..3) store.save(location(50.0 + i), emptyMap())
+        assertEquals(53.0, reload()!!.fused!!.latitude, 0.0)
+    }
+
+    @Test
+    fun tornWriteFallsBackToPreviousRecord() {
+        val store = LastLocationStore(file)
+        store.load()
+        // The first record goes to slot 1, the second to slot 0
+        store.save(location(51.0), emptyMap())
+        store.save(location(52.0), emptyMap())
+        store.force()
+        corrupt(0)
+        assertEquals(51.0, reload()!!.fused!!.latitude, 0.0)
+    }
+
+    @Test
+    fun writeAfterRecoveryKeepsValidRecord() {
+        val store = LastLocationStore(file)
+        store.load()
+        store.save(location(51.0), emptyMap())
+        store.save(location(52.0), emptyMap())
+        store.force()
+        corrupt(0)
+
+        val recovered = LastLocationStore(file)
+        assertEquals(51.0, recovered.load()!!.fused!!.latitude, 0.0)
+        // Overwrites the corrupt slot, not the one holding the recovered record
+        recovered.save(location(53.0), emptyMap())
+        recovered.force()
+        assertEquals(53.0, reload()!!.fused!!.latitude, 0.0)
+        corrupt(0)
+        assertEquals(51.0, reload()!!.fused!!.latitude, 0.0)
+    }
+
+    @Test
+    fun bothSlotsCorruptHasNoRecord() {
+        val store = LastLocationStore(file)
+        store.load()
+        store.save(location(51.0), emptyMap())
+        store.save(location(52.0), emptyMap())
+        store.force()
+        corrupt(0)
+        corrupt(1)
+        assertNull(reload())
+    }
+
+    @Test
+    fun backendsAreLimited() {
+        val store = LastLocationStore(file)
+        store.load()
+        store.save(location(52.0), (1..LastLocationStore.MAX_BACKENDS + 2).associate { "backend$it/.B" to location(50.0 + it) })
+        assertEquals(LastLocationStore.MAX_BACKENDS, reload()!!.backends.size)
+    }
+
+    @Test
+    fun keyIsFnv1a() {
+        assertEquals(java.lang.Long.parseUnsignedLong("cbf29ce484222325", 16), LastLocationStore.keyOf(""))
+        assertEquals(java.lang.Long.parseUnsignedLong("af63dc4c8601ec8c", 16), LastLocationStore.keyOf("a"))
+    }
+
+    companion object {
+        private const val TIME = 1_600_000_000_000L
+        private const val SLOT_SIZE = 12 + (LastLocationStore.MAX_BACKENDS + 1) * 36 + 4
+    }
+}
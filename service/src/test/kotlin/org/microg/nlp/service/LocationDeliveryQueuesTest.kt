@@ -0,0 +1,170 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.location.Location
+import android.os.Bundle
+import android.os.RemoteException
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.microg.nlp.fusion.MetricsRegistry
+import org.microg.nlp.service.api.ILocationListener
+import org.microg.nlp.service.api.LocationRequest
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [29])
+class LocationDeliveryQueuesTest {
+    private val dispatcher = SerialDispatcher("test-delivery", 1)
+    private val metrics = MetricsRegistry()
+    private val delivered = Collections.synchronizedList(ArrayList<Int>())
+    private val dropped = Collections.synchronizedList(ArrayList<Int>())
+    private val failures = Semaphore(0)
+    private val callbacks = Semaphore(0)
+    private val listener = BlockingListener()
+    private val request = LocationRequestInternal(LocationRequest(listener, 1000, Int.MAX_VALUE, "a"), Bundle().apply {
+        putString("packageName", "org.example")
+    })
+    private val queues = LocationDeliveryQueues(dispatcher, CAPACITY, metrics, object : LocationDeliveryQueues.Callback {
+        override fun onFailure(listener: ILocationListener, e: Exception) {
+            failures.release()
+        }
+
+        override fun onDelivered(request: LocationRequestInternal, generation: Int, count: Int) {
+            delivered.add(count)
+            callbacks.release()
+        }
+
+        override fun onDropped(request: LocationRequestInternal, generation: Int, count: Int) {
+            dropped.add(count)
+            callbacks.release()
+        }
+    })
+
+    /**
+     * Records the times of the locations it receives, the first delivery blocks until [release] is called.
+     */
+    private class BlockingListener : ILocationListener.Stub() {
+        val received: MutableList<List<Long>> = Collections.synchronizedList(ArrayList())
+        val entered = CountDownLatch(1)
+        private val gate = CountDownLatch(1)
+        var fail = false
+
+        fun release() = gate.countDown()
+
+        override fun onLocation(statusCode: Int, location: Location?) = onReceived(listOf(location!!))
+
+        override fun onLocations(statusCode: Int, locations: MutableList<Location>?) = onReceived(locations!!)
+
+        private fun onReceived(locations: List<Location>) {
+            entered.countDown()
+            gate.await(5, TimeUnit.SECONDS)
+            if (fail) throw RemoteException()
+            received.add(locations.map { it.time })
+        }
+    }
+
+    private fun location(time: Long) = Location("test").apply { this.time = time }
+
+    /**
+     * Queues a location and waits until the listener blocks in its delivery.
+     */
+    private fun block() {
+        queues.enqueue(request, location(0))
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS))
+    }
+
+    private fun awaitCallbacks(count: Int) {
+        assertTrue(callbacks.tryAcquire(count, 5, TimeUnit.SECONDS))
+    }
+
+    @After
+    fun tearDown() {
+        listener.release()
+    }
+
+    @Test
+    fun locationsAreDeliveredInOrder() {
+        listener.release()
+        for (time in 1L..3L) queues.enqueue(request, location(time))
+        awaitCallbacks(3)
+        assertEquals(listOf(listOf(1L), listOf(2L), listOf(3L)), listener.received)
+        assertEquals(listOf(1, 1, 1), delivered)
+        assertEquals(3L, metrics.counter("delivery.delivered").count)
+    }
+
+    @Test
+    fun fullQueueDropsOldestLocation() {
+        block()
+        for (time in 1L..CAPACITY + 1L) queues.enqueue(request, location(time))
+        listener.release()
+        // The drop is notified on the lane, after the queue was drained
+        awaitCallbacks(CAPACITY + 2)
+        assertEquals(listOf(1), dropped)
+        assertEquals(listOf(listOf(0L), listOf(2L), listOf(3L), listOf(4L), listOf(5L)), listener.received)
+        assertEquals(1L, metrics.counter("delivery.dropped").count)
+    }
+
+    @Test
+    fun batchesAreMergedInsteadOfDropped() {
+        block()
+        for (time in 1L..CAPACITY.toLong()) queues.enqueue(request, location(time))
+        queues.enqueueBatch(request, listOf(location(10), location(11)))
+        queues.enqueueBatch(request, listOf(location(12)))
+        listener.release()
+        awaitCallbacks(CAPACITY + 2)
+        assertEquals(listOf(1), dropped)
+        assertEquals(listOf(listOf(0L), listOf(2L), listOf(3L), listOf(4L), listOf(10L, 11L, 12L)), listener.received)
+        assertEquals(listOf(1, 1, 1, 1, 3), delivered)
+    }
+
+    @Test
+    fun batchesOfReplacedRequestAreNotMerged() {
+        block()
+        queues.enqueueBatch(request, listOf(location(1)))
+        request.adopt(LocationRequestInternal(LocationRequest(listener, 1000, Int.MAX_VALUE, "a"), Bundle()))
+        queues.enqueueBatch(request, listOf(location(2)))
+        listener.release()
+        awaitCallbacks(3)
+        assertEquals(listOf(listOf(0L), listOf(1L), listOf(2L)), listener.received)
+    }
+
+    @Test
+    fun cancelledRequestsAreSkipped() {
+        block()
+        queues.enqueue(request, location(1))
+        request.cancelled = true
+        listener.release()
+        awaitCallbacks(1)
+        Thread.sleep(100)
+        assertEquals(listOf(listOf(0L)), listener.received)
+        assertEquals(listOf(1), delivered)
+    }
+
+    @Test
+    fun failureClearsQueue() {
+        listener.fail = true
+        block()
+        queues.enqueue(request, location(1))
+        queues.enqueue(request, location(2))
+        listener.release()
+        assertTrue(failures.tryAcquire(5, TimeUnit.SECONDS))
+        assertTrue(listener.received.isEmpty())
+        assertTrue(delivered.isEmpty())
+        assertEquals(2L, metrics.counter("delivery.dropped").count)
+    }
+
+    companion object {
+        private const val CAPACITY = 4
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.location.Location
+import android.os.Bundle
+import android.os.IBinder
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.microg.nlp.service.api.ILocationListener
+import org.microg.nlp.service.api.LocationRequest
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [29])
+class LocationRequestRegistryTest {
+    private val removedListeners = ArrayList<IBinder>()
+    private val registry = LocationRequestRegistry { removedListeners.add(it) }
+    private val listener = TestListener()
+
+    private class TestListener : ILocationListener.Stub() {
+        override fun onLocation(statusCode: Int, location: Location?) = Unit
+        override fun onLocations(statusCode: Int, locations: MutableList<Location>?) = Unit
+    }
+
+    private fun request(id: String, interval: Long, numUpdates: Int = Int.MAX_VALUE, listener: ILocationListener = this.listener, pid: Int = PID, configure: LocationRequest.() -> Unit = {}) =
+            LocationRequestInternal(LocationRequest(listener, interval, numUpdates, id).apply(configure), Bundle().apply {
+                putInt("callingPid", pid)
+                putString("packageName", "org.example")
+            })
+
+    @Test
+    fun emptyRegistry() {
+        assertEquals(0, registry.size)
+        assertEquals(Long.MAX_VALUE, registry.minInterval)
+        assertEquals(Float.MAX_VALUE, registry.minAccuracy, 0f)
+        assertFalse(registry.hasSingleUpdate)
+    }
+
+    @Test
+    fun intervalsAndAccuraciesAreMerged() {
+        val fast = request("fast", 1000) { accuracy = 100f }
+        val slow = request("slow", 5000) { accuracy = 20f }
+        registry.put(fast)
+        registry.put(slow)
+        assertEquals(2, registry.size)
+        assertEquals(1000L, registry.minInterval)
+        assertEquals(20f, registry.minAccuracy, 0f)
+
+        registry.remove(fast)
+        assertEquals(5000L, registry.minInterval)
+        assertTrue(fast.cancelled)
+        registry.remove(slow)
+        assertEquals(Long.MAX_VALUE, registry.minInterval)
+        assertEquals(Float.MAX_VALUE, registry.minAccuracy, 0f)
+    }
+
+    @Test
+    fun passiveRequestsAreNotIndexed() {
+        registry.put(request("passive", 1000) { passive = true; accuracy = 10f })
+        assertEquals(1, registry.size)
+        assertEquals(Long.MAX_VALUE, registry.minInterval)
+        assertEquals(Float.MAX_VALUE, registry.minAccuracy, 0f)
+    }
+
+    @Test
+    fun singleUpdateIsIndexed() {
+        val single = request("single", 0, 1)
+        registry.put(single)
+        assertTrue(registry.hasSingleUpdate)
+        registry.remove(single)
+        assertFalse(registry.hasSingleUpdate)
+    }
+
+    @Test
+    fun sameIdFromSameProcessIsReplaced() {
+        val original = request("a", 1000)
+        registry.put(original)
+        registry.put(request("a", 5000))
+        assertEquals(1, registry.size)
+        assertTrue(registry.contains(original))
+        assertEquals(5000L, original.interval)
+        assertEquals(1, original.generation)
+        assertEquals(5000L, registry.minInterval)
+    }
+
+    @Test
+    fun sameIdFromOtherProcessIsSeparate() {
+        registry.put(request("a", 1000))
+        registry.put(request("a", 5000, pid = PID + 1))
+        assertEquals(2, registry.size)
+        registry.removeById("a", PID)
+        assertEquals(1, registry.size)
+        assertEquals(5000L, registry.minInterval)
+    }
+
+    @Test
+    fun replacingListenerMovesRequest() {
+        val other = TestListener()
+        val original = request("a", 1000)
+        registry.put(original)
+        registry.put(request("a", 1000, listener = other))
+        assertEquals(listOf<IBinder>(listener.asBinder()), removedListeners)
+        registry.removeByListener(listener)
+        assertTrue(registry.contains(original))
+        registry.removeByListener(other)
+        assertFalse(registry.contains(original))
+        assertEquals(0, registry.size)
+    }
+
+    @Test
+    fun removeByListenerRemovesAllItsRequests() {
+        val first = request("a", 1000)
+        val second = request("b", 2000)
+        registry.put(first)
+        registry.put(second)
+        registry.removeByListener(listener)
+        assertEquals(0, registry.size)
+        assertTrue(first.cancelled)
+        assertTrue(second.cancelled)
+        assertEquals(listOf<IBinder>(listener.asBinder()), removedListeners)
+    }
+
+    @Test
+    fun completedRequestIsUnregistered() {
+        val request = request("a", 1000, 2)
+        registry.put(request)
+        registry.onDispatched(request, request.generation, 1)
+        assertTrue(registry.contains(request))
+        registry.onDispatched(request, request.generation, 1)
+        assertFalse(registry.contains(request))
+        assertFalse(request.cancelled)
+        assertEquals(Long.MAX_VALUE, registry.minInterval)
+    }
+
+    @Test
+    fun deliveriesOfReplacedRequestAreNotCounted() {
+        val request = request("a", 1000, 1)
+        registry.put(request)
+        val generation = request.generation
+        registry.put(request("a", 1000, 1))
+        registry.onDispatched(request, generation, 1)
+        assertTrue(registry.contains(request))
+        assertEquals(0, request.updatesDelivered)
+    }
+
+    @Test
+    fun reportRunsOnlyForWaitingRequests() {
+        val request = request("a", 1000, 1)
+        assertFalse(registry.report(request) { fail(); true })
+        registry.put(request)
+        assertTrue(registry.report(request) { true })
+        registry.onDispatched(request, request.generation, 1)
+        assertFalse(registry.report(request) { fail(); true })
+    }
+
+    @Test
+    fun snapshotIsSharedUntilChanged() {
+        registry.put(request("a", 1000))
+        val snapshot = registry.snapshot()
+        assertSame(snapshot, registry.snapshot())
+        registry.put(request("a", 2000))
+        assertSame(snapshot, registry.snapshot())
+        registry.put(request("b", 2000))
+        assertNotSame(snapshot, registry.snapshot())
+        assertEquals(2, registry.snapshot().size)
+    }
+
+    companion object {
+        private const val PID = 1000
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import android.content.Context
+import android.content.ContextWrapper
+import android.content.pm.PackageManager.PERMISSION_DENIED
+import android.content.pm.PackageManager.PERMISSION_GRANTED
+import android.os.Looper
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.LooperMode
+import java.time.Duration
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [29])
+@LooperMode(LooperMode.Mode.PAUSED)
+class PermissionCacheTest {
+    private val checks = ArrayList<Triple<String, Int, Int>>()
+    private val granted = HashSet<Int>()
+    private val context = object : ContextWrapper(ApplicationProvider.getApplicationContext<Context>()) {
+        override fun getApplicationContext(): Context = this
+
+        override fun checkPermission(permission: String, pid: Int, uid: Int): Int {
+            checks.add(Triple(permission, pid, uid))
+            return if (uid in granted) PERMISSION_GRANTED else PERMISSION_DENIED
+        }
+    }
+    private val cache = PermissionCache(context)
+
+    private fun check(pid: Int = PID, uid: Int = UID, permission: String = LOCATION) = cache.checkPermission(permission, pid, uid)
+
+    @Test
+    fun decisionsAreCached() {
+        granted.add(UID)
+        assertEquals(PERMISSION_GRANTED, check())
+        assertEquals(PERMISSION_GRANTED, check())
+        assertEquals(PERMISSION_DENIED, check(uid = UID + 1))
+        assertEquals(PERMISSION_DENIED, check(uid = UID + 1))
+        assertEquals(2, checks.size)
+    }
+
+    @Test
+    fun entriesAreKeyedByPermissionPidAndUid() {
+        check()
+        check(pid = PID + 1)
+        check(uid = UID + 1)
+        check(permission = "org.microg.nlp.SERVICE_ADMIN")
+        assertEquals(4, checks.size)
+        check(pid = PID + 1)
+        assertEquals(4, checks.size)
+    }
+
+    @Test
+    fun entriesExpire() {
+        check()
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(PermissionCache.TTL - 1))
+        check()
+        assertEquals(1, checks.size)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1))
+        check()
+        assertEquals(2, checks.size)
+    }
+
+    @Test
+    fun invalidateUidOnlyDropsItsEntries() {
+        check()
+        check(uid = UID + 1)
+        granted.add(UID)
+        cache.invalidateUid(UID)
+        assertEquals(PERMISSION_GRANTED, check())
+        check(uid = UID + 1)
+        assertEquals(3, checks.size)
+    }
+
+    @Test
+    fun invalidateDropsAllEntries() {
+        check()
+        check(uid = UID + 1)
+        cache.invalidate()
+        check()
+        check(uid = UID + 1)
+        assertEquals(4, checks.size)
+    }
+
+    @Test
+    fun disabledCacheAsksEveryTime() {
+        cache.enabled = false
+        check()
+        check()
+        assertEquals(2, checks.size)
+    }
+
+    companion object {
+        private const val LOCATION = "android.permission.ACCESS_COARSE_LOCATION"
+        private const val PID = 4000
+        private const val UID = 10100
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service
+
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+class SerialDispatcherTest {
+    private val gate = CountDownLatch(1)
+
+    private fun block() {
+        gate.await(5, TimeUnit.SECONDS)
+    }
+
+    private fun CountDownLatch.awaitDone() = assertTrue(await(5, TimeUnit.SECONDS))
+
+    @After
+    fun tearDown() {
+        gate.countDown()
+    }
+
+    @Test
+    fun laneRunsTasksInOrder() {
+        val lane = SerialDispatcher("test", 4).newLane()
+        val order = Collections.synchronizedList(ArrayList<Int>())
+        val running = AtomicInteger()
+        val done = CountDownLatch(100)
+        for (i in 0 until 100) {
+            lane.execute {
+                assertEquals(1, running.incrementAndGet())
+                order.add(i)
+                running.decrementAndGet()
+                done.countDown()
+            }
+        }
+        done.awaitDone()
+        assertEquals((0 until 100).toList(), order)
+    }
+
+    @Test
+    fun lanesRunInParallel() {
+        val dispatcher = SerialDispatcher("test", 2)
+        val barrier = CyclicBarrier(2)
+        val done = CountDownLatch(2)
+        repeat(2) {
+            dispatcher.newLane().execute {
+                barrier.await(5, TimeUnit.SECONDS)
+                done.countDown()
+            }
+        }
+        done.awaitDone()
+    }
+
+    @Test
+    fun threadsAreBounded() {
+        val dispatcher = SerialDispatcher("test", 2)
+        val started = CountDownLatch(2)
+        val third = CountDownLatch(1)
+        repeat(2) { dispatcher.newLane().execute { started.countDown(); block() } }
+        dispatcher.newLane().execute { third.countDown() }
+        started.awaitDone()
+        assertFalse(third.await(100, TimeUnit.MILLISECONDS))
+        assertEquals(2, dispatcher.threads)
+        assertEquals(3, dispatcher.queueDepth)
+        gate.countDown()
+        third.awaitDone()
+    }
+
+    @Test
+    fun abandonedCallGetsAdditionalThread() {
+        val dispatcher = SerialDispatcher("test", 1)
+        val started = CountDownLatch(1)
+        val call = dispatcher.execute { started.countDown(); block() }
+        started.awaitDone()
+        call.abandon()
+        val next = CountDownLatch(1)
+        dispatcher.execute { next.countDown() }
+        next.awaitDone()
+    }
+
+    @Test
+    fun detachedLaneRunsOnOwnThread() {
+        val dispatcher = SerialDispatcher("test", 1)
+        val lane = dispatcher.newLane()
+        val started = CountDownLatch(1)
+        lane.execute { started.countDown(); block() }
+        started.awaitDone()
+        lane.detach()
+
+        val other = CountDownLatch(1)
+        dispatcher.newLane().execute { other.countDown() }
+        other.awaitDone()
+
+        val threadName = arrayOfNulls<String>(1)
+        val next = CountDownLatch(1)
+        lane.execute { threadName[0] = Thread.currentThread().name; next.countDown() }
+        // Still serial, the next task waits for the hanging one
+        assertFalse(next.await(100, TimeUnit.MILLISECONDS))
+        gate.countDown()
+        next.awaitDone()
+        assertTrue(threadName[0]!!, threadName[0]!!.startsWith("test-detached-"))
+    }
+
+    @Test
+    fun callReturnsResult() {
+        val lane = SerialDispatcher("test", 1).newLane("backend")
+        assertEquals(42, runBlocking { lane.call(1000) { 42 } })
+        val e = assertThrows(IllegalStateException::class.java) {
+            runBlocking { lane.call(1000) { throw IllegalStateException("failed") } }
+        }
+        assertEquals("failed", e.message)
+    }
+
+    @Test
+    fun callTimesOutAndDetaches() {
+        val dispatcher = SerialDispatcher("test", 1)
+        val lane = dispatcher.newLane("backend")
+        val e = assertThrows(TimeoutException::class.java) { runBlocking { lane.call(100) { block() } } }
+        assertEquals("backend did not answer within 100ms", e.message)
+        // The hanging call does not block other lanes
+        assertEquals(1, runBlocking { dispatcher.newLane().call(1000) { 1 } })
+    }
+}
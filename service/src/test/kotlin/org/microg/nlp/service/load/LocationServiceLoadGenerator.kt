@@ -0,0 +1,252 @@
+/*
+ * SPDX-FileCopyrightText: 2026, microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.nlp.service.load
+
+import android.Manifest
+import android.app.Application
+import android.content.Context
+import android.content.ContextWrapper
+import android.location.Location
+import android.location.LocationManager
+import android.os.Bundle
+import android.os.Looper
+import android.os.Process
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.LifecycleOwner
+import androidx.lifecycle.LifecycleRegistry
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.microg.nlp.fusion.MetricsRegistry
+import org.microg.nlp.service.LocationServiceImpl
+import org.microg.nlp.service.PermissionCache
+import org.microg.nlp.service.SerialDispatcher
+import org.microg.nlp.service.api.Constants.STATUS_OK
+import org.microg.nlp.service.api.ILocationListener
+import org.microg.nlp.service.api.IStatusCallback
+import org.microg.nlp.service.api.LocationRequest
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.LooperMode
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.time.Duration
+import java.util.Random
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Load generator for [LocationServiceImpl], not a test.
+ *
+ * Registers [LISTENERS] synthetic listeners with mixed intervals, numbers of updates and batching, of which a fraction
+ * blocks for [SLOW_DELAY] on every delivery. It then reports [REPORTS] synthetic fused locations from a separate thread
+ * at the minimum location interval of simulated time, as fast as the service takes them. Listeners whose request
+ * finished register again, so requests keep changing while locations are reported.
+ *
+ * Permission checks take [PERMISSION_CHECK_COST] microseconds, standing in for the binder call to the system server, and
+ * are cached by [PermissionCache] unless `load.permissionCache=false`, to compare the throughput with and without it.
+ *
+ * Reported are delivery throughput, the latency from reporting a location to the listener receiving it, the duration
+ * of reportLocation, the time until a registration is acknowledged, and how often and how long the reporting thread
+ * (reportLocation) and the main thread (request changes, updateLocationInterval) were blocked on monitors.
+ *
+ * Runs with `./gradlew :service:testDebugUnitTest -PloadTest`, parameters are passed as `-Pload.<name>=<value>`. The
+ * report is printed and written to build/reports/load/location-service.txt.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [29])
+@LooperMode(LooperMode.Mode.PAUSED)
+class LocationServiceLoadGenerator {
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val serviceContext = object : ContextWrapper(context) {
+        override fun getApplicationContext(): Context = this
+
+        override fun checkPermission(permission: String, pid: Int, uid: Int): Int {
+            val end = realNanos() + PERMISSION_CHECK_COST * 1000
+            // Busy wait, sleeping is too coarse for a few microseconds
+            while (realNanos() < end) continue
+            return super.checkPermission(permission, pid, uid)
+        }
+    }
+    private val owner = object : LifecycleOwner {
+        val registry = LifecycleRegistry(this)
+        override fun getLifecycle(): Lifecycle = registry
+    }
+    private lateinit var service: LocationServiceImpl
+    private val reporter = Executors.newSingleThreadExecutor { Thread(it, "load-reporter") }
+    private val threads = ManagementFactory.getThreadMXBean()
+    private val metrics = MetricsRegistry()
+    private val deliveryLatency = metrics.histogram("load.delivery_latency_us")
+    private val reportDuration = metrics.histogram("load.report_duration_us")
+    private val registrationLatency = metrics.histogram("load.registration_latency_us")
+    private val delivered = metrics.counter("load.delivered")
+    private val registrations = metrics.counter("load.registrations")
+    private val reportedAt = ConcurrentHashMap<Long, Long>()
+    private val registered = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        shadowOf(context as Application).grantPermissions(Manifest.permission.ACCESS_COARSE_LOCATION, "org.microg.nlp.SERVICE_ADMIN")
+        shadowOf(context.packageManager).setPackagesForUid(Process.myUid(), context.packageName)
+        owner.registry.currentState = Lifecycle.State.RESUMED
+        service = LocationServiceImpl(serviceContext, owner.lifecycle)
+        PermissionCache.getInstance(serviceContext).enabled = PERMISSION_CACHE
+        shadowOf(Looper.getMainLooper()).idle()
+        if (threads.isThreadContentionMonitoringSupported) threads.isThreadContentionMonitoringEnabled = true
+    }
+
+    @After
+    fun tearDown() {
+        reporter.shutdownNow()
+        service.destroy()
+        owner.registry.currentState = Lifecycle.State.DESTROYED
+    }
+
+    @Test
+    fun run() {
+        val random = Random(SEED)
+        val listeners = List(LISTENERS) { index ->
+            SyntheticListener(index, INTERVALS[random.nextInt(INTERVALS.size)], NUM_UPDATES[random.nextInt(NUM_UPDATES.size)],
+                    random.nextDouble() < BATCHING_FRACTION, if (random.nextDouble() < SLOW_FRACTION) SLOW_DELAY else 0)
+        }
+        listeners.forEach { it.register() }
+        shadowOf(Looper.getMainLooper()).idle()
+
+        val reporterThread = reporter.submit<Long> { Thread.currentThread().id }.get()
+        val mainThread = Thread.currentThread().id
+        val reporterBefore = threads.getThreadInfo(reporterThread)
+        val mainBefore = threads.getThreadInfo(mainThread)
+        val start = realNanos()
+        var latitude = 52.52
+        var longitude = 13.405
+        for (i in 0 until REPORTS) {
+            latitude += random.nextGaussian() * 0.0002
+            longitude += random.nextGaussian() * 0.0002
+            val location = Location(LocationManager.NETWORK_PROVIDER).apply {
+                this.latitude = latitude
+                this.longitude = longitude
+                accuracy = 20f + random.nextInt(100)
+                time = BASE_TIME + i * REPORT_INTERVAL
+            }
+            val report = reporter.submit(Runnable {
+                val reportStart = realNanos()
+                reportedAt[location.time] = reportStart
+                service.reportLocation(location)
+                reportDuration.record((realNanos() - reportStart) / 1000)
+            })
+            // Advances the simulated clock and runs request changes on the main thread while the report is running
+            shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(REPORT_INTERVAL))
+            report.get()
+        }
+        val reportingTime = realNanos() - start
+        val reporterAfter = threads.getThreadInfo(reporterThread)
+        val mainAfter = threads.getThreadInfo(mainThread)
+        val deliveryBlocked = deliveryThreadsBlocked()
+        awaitDeliveries()
+        val totalTime = realNanos() - start
+
+        val report = buildString {
+            appendLine("listeners=$LISTENERS reports=$REPORTS slow=${listeners.count { it.delay > 0 }} (${SLOW_DELAY}ms) batching=${listeners.count { it.batching }} requests at end=${registered.get()}")
+            appendLine("permission cache=${if (PERMISSION_CACHE) "on" else "off"} check cost=${PERMISSION_CHECK_COST}us")
+            appendLine("reporting time=${reportingTime / 1000000}ms total time=${totalTime / 1000000}ms")
+            appendLine("throughput: ${delivered.count * 1000000000L / totalTime.coerceAtLeast(1)} locations/s, ${REPORTS * 1000000000L / reportingTime.coerceAtLeast(1)} reports/s")
+            appendLine("reportLocation thread blocked: count=${reporterAfter.blockedCount - reporterBefore.blockedCount} time=${reporterAfter.blockedTime - reporterBefore.blockedTime}ms")
+            appendLine("main thread blocked: count=${mainAfter.blockedCount - mainBefore.blockedCount} time=${mainAfter.blockedTime - mainBefore.blockedTime}ms")
+            appendLine("delivery threads blocked: $deliveryBlocked")
+            metrics.export().forEach { appendLine(it) }
+            // Totals of the delivery queues, without the per-listener metrics, and of the permission cache
+            MetricsRegistry.location.export().filter { line -> line.split(' ')[1].let { it.startsWith("delivery.") && it.count { c -> c == '.' } == 1 || it.startsWith("permissions.") } }.forEach { appendLine(it) }
+        }
+        println(report)
+        File("build/reports/load").apply { mkdirs() }.resolve("location-service.txt").writeText(report)
+    }
+
+    private fun deliveryThreadsBlocked(): String {
+        val infos = threads.getThreadInfo(threads.allThreadIds).filterNotNull().filter { it.threadName.startsWith("location-delivery") }
+        return "threads=${infos.size} count=${infos.sumOf { it.blockedCount }} time=${infos.sumOf { it.blockedTime }}ms"
+    }
+
+    private fun awaitDeliveries() {
+        val deadline = realNanos() + TimeUnit.SECONDS.toNanos(60)
+        while (SerialDispatcher.deliveries.queueDepth > 0 && realNanos() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle()
+            Thread.sleep(10)
+        }
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private inner class SyntheticListener(val index: Int, val interval: Long, val numUpdates: Int, val batching: Boolean, val delay: Long) : ILocationListener.Stub() {
+        private var received = 0
+
+        fun register() {
+            received = 0
+            val request = LocationRequest(this, interval, numUpdates, "load-$index")
+            if (batching) request.maxWaitTime = interval * 4
+            val registrationStart = realNanos()
+            registrations.increment()
+            service.updateLocationRequest(request, object : IStatusCallback.Stub() {
+                override fun onStatus(statusCode: Int) {
+                    registrationLatency.record((realNanos() - registrationStart) / 1000)
+                    if (statusCode == STATUS_OK) registered.incrementAndGet()
+                }
+            }, Bundle().apply { putString("packageName", context.packageName) })
+        }
+
+        override fun onLocation(statusCode: Int, location: Location?) {
+            if (location != null) onReceived(listOf(location))
+        }
+
+        override fun onLocations(statusCode: Int, locations: MutableList<Location>?) {
+            if (locations != null) onReceived(locations)
+        }
+
+        private fun onReceived(locations: List<Location>) {
+            val now = realNanos()
+            for (location in locations) {
+                reportedAt[location.time]?.let { deliveryLatency.record((now - it) / 1000) }
+            }
+            delivered.increment(locations.size.toLong())
+            if (delay > 0) Thread.sleep(delay)
+            received += locations.size
+            if (received >= numUpdates) {
+                registered.decrementAndGet()
+                register()
+            }
+        }
+    }
+
+    companion object {
+        private val LISTENERS = intProperty("load.listeners", 500)
+        private val REPORTS = intProperty("load.reports", 200)
+        private val SLOW_FRACTION = doubleProperty("load.slowFraction", 0.05)
+        private val SLOW_DELAY = longProperty("load.slowDelay", 50)
+        private val BATCHING_FRACTION = doubleProperty("load.batchingFraction", 0.1)
+        private val SEED = longProperty("load.seed", 42)
+        private val PERMISSION_CACHE = System.getProperty("load.permissionCache")?.toBoolean() ?: true
+        private val PERMISSION_CHECK_COST = longProperty("load.permissionCheckCost", 50)
+        private const val REPORT_INTERVAL = 2500L
+        private const val BASE_TIME = 1600000000000L
+        private val INTERVALS = longArrayOf(2500, 5000, 10000, 30000, 60000)
+        private val NUM_UPDATES = intArrayOf(1, 1, 5, 20, Int.MAX_VALUE)
+
+        private fun intProperty(name: String, default: Int) = System.getProperty(name)?.toIntOrNull() ?: default
+        private fun longProperty(name: String, default: Long) = System.getProperty(name)?.toLongOrNull() ?: default
+        private fun doubleProperty(name: String, default: Double) = System.getProperty(name)?.toDoubleOrNull() ?: default
+
+        private val nanoTime = System::class.java.getMethod("nanoTime")
+
+        /**
+         * Real monotonic time in nanoseconds. Robolectric replaces calls to System.nanoTime() with its simulated
+         * clock, which only advances when the main looper is idled, so the real clock is read reflectively.
+         */
+        private fun realNanos(): Long = nanoTime.invoke(null) as Long
+    }
+}